@@ -0,0 +1,435 @@
+import java.awt.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+// Plain java harness, there is no build file to pull in JMH.
+// Works the same way as a JMH throughput run: timed warmup iterations, then timed measurement iterations,
+// with every result fed into a sink so the JIT can not drop the work.
+// Allocation is read from the thread allocation counter, like the GC profiler does.
+// Run from the repository root:
+//   javac -d out src/*.java bench/*.java
+//   java -cp out CatalogBenchmark [catalog sizes...]
+
+/**
+ * Benchmarks searching, laying out, loading and purchasing items on synthetic catalogs.
+ */
+public class CatalogBenchmark {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final int      WARMUP_ITERATIONS  = 3, MEASURE_ITERATIONS = 5;
+    private static final long     ITERATION_NANOS    = 1_000_000_000L;
+    private static final int[]    DEFAULT_SIZES      = {1_000, 100_000, 1_000_000};
+    private static final double   SEARCH_ACCURACY    = 1.2;
+    private static final String[] QUERIES            = {"scarf", "hair", "dog", "orange winter", "gldn bmbx", "r"};
+    private static final String[] ADJECTIVES         = {"Orange", "Purple", "Golden", "Red", "Wild", "Neon", "Blue", "Messy", "Wavy", "Super", "Robot", "Winter", "Summer", "Classic", "Shiny"};
+    private static final String[] NOUNS              = {"Scarf", "Hair", "Wagon", "Headphones", "Boombox", "Coil", "Convertible", "Dog", "Hat", "Cape", "Sword", "Shield", "Backpack", "Wings", "Glasses"};
+    private static final String[] TAGS               = {"Accessory", "Winter", "Gear", "Neck", "Hair", "Head", "Animals", "Dog", "Pet", "Vehicle", "Car", "Musical", "Social", "Navigation", "Gravity", "Robot", "Guard", "Roblox", "Red Car", "Limited"};
+    private static final String[] ASSET_NAMES        = {"Orange Winter Scarf", "Puppy Wagon", "Orange Messy Wavy Hair", "Purple Winter Scarf", "Wild Neon Blue Scarf", "Golden Neck Headphones", "Golden Super Fly Boombox", "Gravity Coil", "Red Convertible", "Robot Guard Dog"};
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static volatile long sink; // Results end up here so they count as used.
+
+    /**
+     * The lock based version of Item.tryPurchase, kept here to compare against the lock free one.
+     */
+    private static class LockedStock {
+        private int stock, lowStockThreshold;
+        private boolean purchasable;
+
+        /**
+         * Buys some of the stock while holding the lock.
+         * @param quantity the amount to buy.
+         * @return what the purchase did.
+         */
+        private synchronized Item.PurchaseResult tryPurchase(int quantity){
+            if (!purchasable || stock < quantity){
+                return Item.PurchaseResult.REJECTED;
+            }
+            int previousStock = stock;
+            stock -= quantity;
+            if (stock == 0){
+                purchasable = false;
+                return Item.PurchaseResult.SOLD_OUT;
+            }
+            return stock <= lowStockThreshold && previousStock > lowStockThreshold ? Item.PurchaseResult.LOW_STOCK : Item.PurchaseResult.PURCHASED;
+        }
+
+        /**
+         * Constructor for the locked stock.
+         * @param stock the stock.
+         * @param lowStockThreshold the low stock threshold.
+         */
+        private LockedStock(int stock, int lowStockThreshold){
+            this.stock             = stock;
+            this.lowStockThreshold = lowStockThreshold;
+            this.purchasable       = stock > 0;
+        }
+    }
+
+    /**
+     * Runs the benchmarks.
+     * @param args the catalog sizes, the default sizes are used if there are none.
+     */
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0){
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++){
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%-44s %14s %14s %14s %12s%n", "Benchmark", "ops/s", "us/op", "B/op", "MB/s alloc");
+        for (int size : sizes){
+            ArrayList<Item> catalog = createCatalog(size, new Random(size), false);
+            benchmarkSearch(catalog, size);
+            benchmarkPurchase(catalog, size);
+            benchmarkJournal(catalog, size);
+            benchmarkUpdates(catalog, size);
+            benchmarkCatalogFile(catalog, size);
+            benchmarkLayout(size);
+        }
+        System.out.println("sink " + sink);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- BENCHMARKS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Benchmarks the fuzzy search.
+     * @param catalog the items.
+     * @param size the catalog size.
+     */
+    private static void benchmarkSearch(ArrayList<Item> catalog, int size){
+        FuzzySearch sequentialSearch = new FuzzySearch(false, SEARCH_ACCURACY, catalog);
+        sequentialSearch.setParallelism(null, Integer.MAX_VALUE);
+        sequentialSearch.setResultCacheBudget(0); // Measure the search itself, the cache is measured on its own below.
+        measure("getSearchResults sequential " + size, invocation -> sink += sequentialSearch.getSearchResults(QUERIES[invocation % QUERIES.length]).size());
+        measure("getSearchResults top 50 " + size, invocation -> sink += sequentialSearch.getSearchResults(QUERIES[invocation % QUERIES.length], 50).size());
+
+        FuzzySearch parallelSearch = new FuzzySearch(false, SEARCH_ACCURACY, catalog); // Pool threads allocate too, so B/op only counts the calling thread.
+        parallelSearch.setResultCacheBudget(0);
+        measure("getSearchResults parallel " + size, invocation -> sink += parallelSearch.getSearchResults(QUERIES[invocation % QUERIES.length]).size());
+
+        FuzzySearch prunedSearch = new FuzzySearch(false, SEARCH_ACCURACY, catalog, true);
+        prunedSearch.setParallelism(null, Integer.MAX_VALUE);
+        prunedSearch.setResultCacheBudget(0);
+        measure("getSearchResults pruned " + size, invocation -> sink += prunedSearch.getSearchResults(QUERIES[invocation % QUERIES.length]).size());
+
+        FuzzySearch cachedSearch = new FuzzySearch(false, SEARCH_ACCURACY, catalog);
+        cachedSearch.setParallelism(null, Integer.MAX_VALUE);
+        measure("getSearchResults cached " + size, invocation -> sink += cachedSearch.getSearchResults(QUERIES[invocation % QUERIES.length]).size());
+        SearchResultCache resultCache = cachedSearch.getResultCache();
+        System.out.printf("%-44s %d hits, %d misses, %d evictions, %d bytes%n", "  result cache", resultCache.getHitCount(),
+                resultCache.getMissCount(), resultCache.getEvictionCount(), resultCache.getUsedBytes());
+
+        String typedQuery = "orange winter scarf";
+        measure("SearchSession typing " + size, invocation -> {
+            SearchSession session = prunedSearch.createSearchSession(Integer.MAX_VALUE);
+            for (int length = 1; length <= typedQuery.length(); length++){ // Every keystroke of the query.
+                sink += session.search(typedQuery.substring(0, length)).size();
+            }
+        });
+
+        BitParallelLCS matcher = new BitParallelLCS();
+        String[] names = new String[Math.min(size, 4096)];
+        for (int i = 0; i < names.length; i++){
+            names[i] = SearchIndex.normalize(catalog.get(i).toString(), false);
+        }
+        matcher.setPattern("orangewinter");
+        measure("getSearchRating " + size, invocation -> {
+            String name = names[invocation % names.length];
+            sink += (long)sequentialSearch.getSearchRating(matcher.getLength(name), matcher.getPatternLength(), false);
+        });
+    }
+
+    /**
+     * Benchmarks the purchase path of an item, alone and with every core buying the same item.
+     * @param catalog the items.
+     * @param size the catalog size.
+     */
+    private static void benchmarkPurchase(ArrayList<Item> catalog, int size){
+        measure("Item.tryPurchase " + size, invocation -> {
+            Item item = catalog.get(invocation % catalog.size());
+            if (item.getStock() <= 1){ // Keep the items purchasable.
+                item.setStock(1_000_000);
+            }
+            sink += item.tryPurchase(1).ordinal();
+        });
+
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors()); // At least a few buyers, even on small machines.
+        Item hotItem = new Item("Hot Item", "A contended item.", "Benchmark", 10, Integer.MAX_VALUE, new String[]{"Limited"}, true, 10);
+        measureContended("Item.tryPurchase contended " + threads + "t", threads, invocation -> sink += hotItem.tryPurchase(1).ordinal());
+        LockedStock lockedItem = new LockedStock(Integer.MAX_VALUE, 10);
+        measureContended("locked purchase contended " + threads + "t", threads, invocation -> sink += lockedItem.tryPurchase(1).ordinal());
+
+        Item eventItem = new Item("Event Item", "An item that keeps selling out.", "Benchmark", 10, 1, new String[]{"Limited"}, true, 10);
+        StockEventBus.StockListener countingListener = (item, event) -> sink += event.ordinal();
+        StockEventBus.getShared().subscribe(eventItem, countingListener);
+        measure("Item sell out and restock", invocation -> { // Two published events per invocation.
+            sink += eventItem.tryPurchase(1).ordinal();
+            eventItem.setStock(1);
+        });
+        StockEventBus.getShared().unsubscribe(eventItem, countingListener);
+    }
+
+    /**
+     * Benchmarks durable purchases, with many buyers sharing every force of the journal.
+     * @param catalog the items.
+     * @param size the catalog size.
+     */
+    private static void benchmarkJournal(ArrayList<Item> catalog, int size){
+        final int BUYERS = 16; // Buyers mostly wait on the disk, so there can be more of them than cores.
+        ArrayList<Item> journalItems = createCatalog(size, new Random(size), false); // Replaying changes the stock, so leave the shared catalog alone.
+        try {
+            Path journalDirectory = Files.createTempDirectory("journal");
+            PurchaseJournal journal = PurchaseJournal.open(journalDirectory, journalItems, 0);
+            CatalogSnapshot snapshot = new CatalogSnapshot(journalDirectory, journalItems);
+            snapshot.start(journal, 0); // Written by hand below.
+            measureContended("PurchaseJournal.purchase " + size + " " + BUYERS + "t", BUYERS, invocation -> {
+                try {
+                    Item item = journalItems.get((invocation * 31 + (int)Thread.currentThread().getId()) % journalItems.size());
+                    if (journal.purchase(item, 1) == Item.PurchaseResult.SOLD_OUT){ // Restock through the journal, so the replay has both kinds of record.
+                        sink += journal.setStock(item, 200, true);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            journal.close();
+            System.out.printf("%-44s %d records, %d forces, %.1f records per force%n", "  purchase journal", journal.getAppendCount(),
+                    journal.getForceCount(), (double)journal.getAppendCount() / Math.max(1, journal.getForceCount()));
+
+            long replayStart = System.nanoTime();
+            PurchaseJournal replayedJournal = PurchaseJournal.open(journalDirectory, createCatalog(size, new Random(size), false), 0);
+            System.out.printf("%-44s %d records replayed in %.1f ms%n", "  journal replay " + size, replayedJournal.getReplayedCount(), (System.nanoTime() - replayStart) / 1e6);
+
+            long snapshotStart = System.nanoTime();
+            snapshot.write();
+            System.out.printf("%-44s written in %.1f ms%n", "  snapshot " + size, (System.nanoTime() - snapshotStart) / 1e6);
+            ArrayList<Item> restartedItems = createCatalog(size, new Random(size), false);
+            long restartStart = System.nanoTime();
+            CatalogSnapshot restartedSnapshot = new CatalogSnapshot(journalDirectory, restartedItems);
+            PurchaseJournal restartedJournal  = PurchaseJournal.open(journalDirectory, restartedItems, restartedSnapshot.restoreLatest());
+            System.out.printf("%-44s %d records replayed in %.1f ms%n", "  restart from snapshot " + size, restartedJournal.getReplayedCount(), (System.nanoTime() - restartStart) / 1e6);
+            try (DirectoryStream<Path> journalFiles = Files.newDirectoryStream(journalDirectory)){
+                for (Path journalFile : journalFiles){
+                    Files.delete(journalFile);
+                }
+            }
+            Files.delete(journalDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Benchmarks price changes reaching their views, which are refreshed together once per frame.
+     * @param catalog the items.
+     * @param size the catalog size.
+     */
+    private static void benchmarkUpdates(ArrayList<Item> catalog, int size){
+        final int VIEWS = Math.min(size, 1000); // About what is on screen or kept around.
+        UpdateCoalescer coalescer = new UpdateCoalescer(TimeUnit.SECONDS.toNanos(1) / 60);
+        ArrayList<Item> viewedItems = new ArrayList<>(catalog.subList(0, VIEWS));
+        ArrayList<StockEventBus.StockListener> views = new ArrayList<>();
+        for (Item item : viewedItems){
+            UpdateCoalescer.Refreshable view = () -> sink += item.getRobuxPrice(); // Stands in for setText and repaint.
+            StockEventBus.StockListener listener = (changedItem, event) -> coalescer.markDirty(view);
+            StockEventBus.getShared().subscribe(item, listener);
+            views.add(listener);
+        }
+        long start = System.nanoTime();
+        measure("Item.setRobuxPrice coalesced " + size, invocation -> viewedItems.get(invocation % VIEWS).setRobuxPrice(10 + (invocation / VIEWS) % 1000)); // A new price every time.
+        try {
+            Thread.sleep(100); // Let the last frame flush.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-44s %d updates, %d flushes (%.1f per second), %.1f views per flush%n", "  update coalescer", coalescer.getMarkCount(),
+                coalescer.getFlushCount(), coalescer.getFlushCount() / seconds, (double)coalescer.getRefreshCount() / Math.max(1, coalescer.getFlushCount()));
+        for (int i = 0; i < VIEWS; i++){
+            StockEventBus.getShared().unsubscribe(viewedItems.get(i), views.get(i));
+        }
+    }
+
+    /**
+     * Benchmarks opening a binary catalog file and building a few of its items.
+     * @param catalog the items.
+     * @param size the catalog size.
+     */
+    private static void benchmarkCatalogFile(ArrayList<Item> catalog, int size){
+        try {
+            Path catalogPath = Files.createTempFile("catalog", ".bin");
+            catalogPath.toFile().deleteOnExit();
+            long writeStart = System.nanoTime();
+            CatalogFile.write(catalogPath, catalog);
+            System.out.printf("%-44s %d bytes, written in %.1f ms%n", "  catalog file " + size, Files.size(catalogPath), (System.nanoTime() - writeStart) / 1e6);
+            measure("CatalogFile.open " + size, invocation -> {
+                try {
+                    CatalogFile catalogFile = CatalogFile.open(catalogPath);
+                    sink += catalogFile.getItem(invocation % catalogFile.size()).getStock(); // Open and show one item.
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Benchmarks setting the items of a layout, which needs the item pictures on the class path.
+     * @param size the catalog size.
+     */
+    private static void benchmarkLayout(int size){
+        if (CatalogBenchmark.class.getResource("/resources/itempictures/" + ASSET_NAMES[0] + ".png") == null){
+            System.out.printf("%-44s skipped, the item pictures are not on the class path%n", "ItemsLayout.setItems " + size);
+            return;
+        }
+        ArrayList<Item> layoutItems = createCatalog(size, new Random(size), true);
+        ItemsLayout layout = new ItemsLayout(layoutItems, new Dimension(700, 500), Color.DARK_GRAY, Color.LIGHT_GRAY, null, null);
+        FuzzySearch search = new FuzzySearch(false, SEARCH_ACCURACY, layoutItems);
+        ArrayList<ArrayList<Item>> resultLists = new ArrayList<>();
+        for (String query : QUERIES){
+            resultLists.add(search.getSearchResults(query));
+        }
+        measure("ItemsLayout.setItems " + size, invocation -> {
+            layout.setItems(resultLists.get(invocation % resultLists.size()));
+            sink += layout.getComponentCount();
+        });
+        ImageCache imageCache = ImageCache.getShared();
+        System.out.printf("%-44s %d hits, %d misses, %d evictions, %d bytes%n", "  image cache", imageCache.getHitCount(),
+                imageCache.getMissCount(), imageCache.getEvictionCount(), imageCache.getUsedBytes());
+        ThumbnailCache thumbnailCache = imageCache.getThumbnailCache();
+        System.out.printf("%-44s %d read, %d scaled, in %s%n", "  thumbnail cache", thumbnailCache.getHitCount(),
+                thumbnailCache.getMissCount(), thumbnailCache.getDirectory());
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- HELPERS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Creates a synthetic catalog.
+     * Tags follow a zipf like distribution so a few tags are on most items, like in the real catalog.
+     * @param size the amount of items.
+     * @param random the random generator.
+     * @param useAssetNames true if the items should be named after the real item pictures.
+     * @return the items.
+     */
+    static ArrayList<Item> createCatalog(int size, Random random, boolean useAssetNames){ // Also used by the checks.
+        ArrayList<Item> catalog = new ArrayList<>(size);
+        for (int i = 0; i < size; i++){
+            String name;
+            if (useAssetNames){
+                name = ASSET_NAMES[i % ASSET_NAMES.length];
+            }else{
+                name = ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " " + NOUNS[random.nextInt(NOUNS.length)];
+                if (random.nextInt(3) == 0){ // Some items get a longer name.
+                    name = ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " " + name + " " + i;
+                }
+            }
+            String[] tags = new String[1 + random.nextInt(4)];
+            for (int j = 0; j < tags.length; j++){
+                tags[j] = TAGS[(int)(TAGS.length * Math.pow(random.nextDouble(), 2.5))]; // Skewed towards the first tags.
+            }
+            int stock = 1 + random.nextInt(200);
+            catalog.add(new Item(name, "A synthetic item.", "Benchmark", 10 + random.nextInt(1000), stock, tags, random.nextBoolean(), random.nextInt(10)));
+        }
+        return catalog;
+    }
+
+    /**
+     * Measures an operation and prints the throughput, the average latency and the allocation.
+     * @param name the benchmark name.
+     * @param operation the operation, which is passed the invocation count.
+     */
+    private static void measure(String name, IntConsumer operation){
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int invocation = 0;
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS; iteration++){
+            long end = System.nanoTime() + ITERATION_NANOS;
+            while (System.nanoTime() < end){
+                operation.accept(invocation++);
+            }
+        }
+        long operations     = 0;
+        long startBytes     = threadBean.getThreadAllocatedBytes(threadId);
+        long startTime      = System.nanoTime();
+        for (int iteration = 0; iteration < MEASURE_ITERATIONS; iteration++){
+            long end = System.nanoTime() + ITERATION_NANOS;
+            while (System.nanoTime() < end){
+                operation.accept(invocation++);
+                operations++;
+            }
+        }
+        long elapsed        = System.nanoTime() - startTime;
+        long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+        double seconds      = elapsed / 1e9;
+        System.out.printf("%-44s %14.1f %14.3f %14.1f %12.1f%n", name, operations / seconds, elapsed / 1e3 / operations, (double)allocatedBytes / operations, allocatedBytes / seconds / (1024 * 1024));
+    }
+
+    /**
+     * Measures an operation run by several threads at once and prints the combined throughput and the average latency.
+     * Allocation is not counted, the counter only covers one thread.
+     * @param name the benchmark name.
+     * @param threads the amount of threads.
+     * @param operation the operation, which is passed the invocation count of its thread.
+     */
+    private static void measureContended(String name, int threads, IntConsumer operation){
+        LongAdder operations = new LongAdder();
+        CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        long warmupNanos  = WARMUP_ITERATIONS * ITERATION_NANOS, measureNanos = MEASURE_ITERATIONS * ITERATION_NANOS;
+        Thread[] workers  = new Thread[threads];
+        for (int i = 0; i < threads; i++){
+            workers[i] = new Thread(() -> {
+                try {
+                    barrier.await();
+                    int invocation = 0;
+                    long end = System.nanoTime() + warmupNanos;
+                    while (System.nanoTime() < end){
+                        operation.accept(invocation++);
+                    }
+                    barrier.await(); // Every thread starts measuring together.
+                    long count = 0;
+                    end = System.nanoTime() + measureNanos;
+                    while (System.nanoTime() < end){
+                        operation.accept(invocation++);
+                        count++;
+                    }
+                    operations.add(count);
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            workers[i].start();
+        }
+        try {
+            barrier.await();
+            barrier.await();
+            for (Thread worker : workers){
+                worker.join();
+            }
+        } catch (InterruptedException | BrokenBarrierException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        double seconds = measureNanos / 1e9;
+        long total     = operations.sum();
+        System.out.printf("%-44s %14.1f %14.3f %14s %12s%n", name, total / seconds, measureNanos * threads / 1e3 / total, "-", "-");
+    }
+}
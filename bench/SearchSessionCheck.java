@@ -0,0 +1,166 @@
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+// Plain java check, there is no build file to pull in a test framework.
+// Types random queries into a search session one keystroke at a time, with backspaces, edits in the middle of the query,
+// cancelled searches and items added in between, and compares every result list with FuzzySearch.getSearchResults.
+// Run from the repository root:
+//   javac -d out src/*.java bench/*.java
+//   java -cp out SearchSessionCheck [seed]
+
+/**
+ * Checks that a search session returns the same results as searching from scratch.
+ */
+public class SearchSessionCheck {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final int    CATALOG_SIZE     = 20_000; // Enough strings that a step passes several interrupt checks.
+    private static final int    KEYSTROKES       = 3_000;  // Per configuration.
+    private static final int    MAX_QUERY_LENGTH = 24;
+    private static final double SEARCH_ACCURACY  = 1.2;
+    private static final String TYPED_CHARACTERS = "abcdefghilmnorstuvwy ";
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static int checkedCount, cancelledCount;
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Runs the check on every search configuration, exiting with an error on the first mismatch.
+     * @param args the random seed, a fixed one is used if there is none.
+     * @throws InterruptedException if the check was interrupted.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42;
+        for (boolean shouldIncludeWhiteSpace : new boolean[]{false, true}){
+            for (boolean shouldPruneCandidates : new boolean[]{false, true}){
+                for (int limit : new int[]{Integer.MAX_VALUE, 20}){
+                    checkSession(new Random(seed), shouldIncludeWhiteSpace, shouldPruneCandidates, limit);
+                }
+            }
+        }
+        System.out.printf("OK: %d queries checked, %d searches cancelled, seed %d%n", checkedCount, cancelledCount, seed);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Types random keystrokes into one session and checks the results after each of them.
+     * @param random the random generator.
+     * @param shouldIncludeWhiteSpace false if whitespace is stripped before comparing.
+     * @param shouldPruneCandidates true if the character index is kept.
+     * @param limit the maximum amount of results.
+     * @throws InterruptedException if the check was interrupted.
+     */
+    private static void checkSession(Random random, boolean shouldIncludeWhiteSpace, boolean shouldPruneCandidates, int limit) throws InterruptedException {
+        ArrayList<Item> catalog  = CatalogBenchmark.createCatalog(CATALOG_SIZE, random, false);
+        FuzzySearch fuzzySearch  = new FuzzySearch(shouldIncludeWhiteSpace, SEARCH_ACCURACY, catalog, shouldPruneCandidates);
+        fuzzySearch.setResultCacheBudget(0); // Compare against a real search every time.
+        SearchSession session    = fuzzySearch.createSearchSession(limit);
+        String configuration     = String.format("whitespace %b, pruned %b, limit %d", shouldIncludeWhiteSpace, shouldPruneCandidates, limit);
+        StringBuilder query      = new StringBuilder();
+        for (int keystroke = 0; keystroke < KEYSTROKES; keystroke++){
+            int action = random.nextInt(100);
+            if (action < 55 && query.length() < MAX_QUERY_LENGTH){ // Type a character.
+                query.append(TYPED_CHARACTERS.charAt(random.nextInt(TYPED_CHARACTERS.length())));
+            }else if (action < 80 && query.length() > 0){ // Backspace.
+                query.setLength(query.length() - 1);
+            }else if (action < 90 && query.length() > 1){ // Edit in the middle, the steps after it are undone.
+                query.setCharAt(random.nextInt(query.length() - 1), TYPED_CHARACTERS.charAt(random.nextInt(TYPED_CHARACTERS.length())));
+            }else if (action < 98){ // Cancel a search of a longer query, then search the same text again.
+                String cancelledQuery = query.toString() + randomText(random, 1 + random.nextInt(4));
+                cancelSearch(session, cancelledQuery, random);
+            }else{ // Add an item, the session has to catch up with the index.
+                fuzzySearch.addItem(CatalogBenchmark.createCatalog(1, random, false).get(0));
+            }
+            checkResults(fuzzySearch, session, query.toString(), limit, configuration);
+        }
+    }
+
+    /**
+     * Starts a search on another thread and interrupts it, either before it starts or at a random point in it.
+     * @param session the session.
+     * @param query the query.
+     * @param random the random generator.
+     * @throws InterruptedException if the check was interrupted.
+     */
+    private static void cancelSearch(SearchSession session, String query, Random random) throws InterruptedException {
+        boolean isInterruptedFirst = random.nextBoolean();
+        long    delayNanos         = random.nextInt(200_000);
+        Thread searchThread = new Thread(() -> {
+            if (isInterruptedFirst){ // Rolls back at the first check.
+                Thread.currentThread().interrupt();
+            }
+            try {
+                session.search(query);
+            } catch (CancellationException e) {
+                cancelledCount++;
+            }
+        });
+        searchThread.start();
+        if (!isInterruptedFirst){
+            long deadline = System.nanoTime() + delayNanos;
+            while (System.nanoTime() < deadline){
+                Thread.onSpinWait();
+            }
+            searchThread.interrupt();
+        }
+        searchThread.join(); // The session is only ever used by one thread at a time.
+    }
+
+    /**
+     * Compares the results of the session with a search from scratch.
+     * @param fuzzySearch the fuzzy search object.
+     * @param session the session.
+     * @param query the query.
+     * @param limit the maximum amount of results.
+     * @param configuration the search configuration, for the error.
+     */
+    private static void checkResults(FuzzySearch fuzzySearch, SearchSession session, String query, int limit, String configuration){
+        ArrayList<Item> expected = fuzzySearch.getSearchResults(query, limit);
+        ArrayList<Item> actual   = session.search(query);
+        if (query.isEmpty() ? !actual.isEmpty() : !isSameItems(expected, actual)){
+            System.err.printf("SEARCH SESSION ERROR: \"%s\" (%s) gave %d results instead of %d, first %s instead of %s\n", query, configuration,
+                    actual.size(), expected.size(), actual.isEmpty() ? null : actual.get(0), expected.isEmpty() ? null : expected.get(0));
+            System.exit(1);
+        }
+        checkedCount++;
+    }
+
+    /**
+     * Checks if two result lists hold the same items in the same order.
+     * @param expected the expected items.
+     * @param actual the actual items.
+     * @return true if they are the same.
+     */
+    private static boolean isSameItems(ArrayList<Item> expected, ArrayList<Item> actual){
+        if (expected.size() != actual.size()){
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++){
+            if (expected.get(i) != actual.get(i)){ // Items are compared by identity.
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Makes random typed text.
+     * @param random the random generator.
+     * @param length the length.
+     * @return the text.
+     */
+    private static String randomText(Random random, int length){
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++){
+            text.append(TYPED_CHARACTERS.charAt(random.nextInt(TYPED_CHARACTERS.length())));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,205 @@
+import java.util.Arrays;
+
+// Bit-parallel longest common subsequence length.
+// Allison, L. and Dix, T. I., "A bit-string longest-common-subsequence algorithm" (1986).
+// Hyyro, H., "Bit-Parallel LCS-length Computation Revisited" (2004).
+// Every bit of the state vector stands for one character of the pattern, so one text character is processed
+// with a handful of word operations instead of a whole column of the dp table.
+
+/**
+ * Computes the length of the longest common subsequence between a pattern and any number of texts.
+ */
+public class BitParallelLCS {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final int WORD_SIZE  = 64;
+    private static final int TABLE_SIZE = 128; // Characters below this get a direct table lookup.
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private int    patternLength;
+    private int    wordCount;
+    private long   lastWordMask;
+    private long[] tableMasks     = new long[TABLE_SIZE]; // Match masks for the table characters, wordCount words each.
+    private char[] extendedChars  = new char[0];          // Pattern characters that do not fit in the table.
+    private long[] extendedMasks  = new long[0];          // Match masks for the extended characters, wordCount words each.
+    private int    extendedCount;
+    private long[] stateVector    = new long[1];          // Working vector for multi-word patterns.
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Sets the pattern that the texts will be compared to.
+     * The internal tables only grow, so setting a pattern that is not longer than a previous one does not allocate.
+     * @param pattern the pattern string.
+     */
+    public void setPattern(String pattern){
+        patternLength = pattern.length();
+        wordCount     = Math.max(1, (patternLength + WORD_SIZE - 1) / WORD_SIZE);
+        int lastBits  = patternLength - (wordCount - 1) * WORD_SIZE; // How many bits of the last word are used.
+        lastWordMask  = lastBits >= WORD_SIZE ? -1L : (1L << lastBits) - 1;
+        if (tableMasks.length < TABLE_SIZE * wordCount){ // Grow the tables for a longer pattern.
+            tableMasks  = new long[TABLE_SIZE * wordCount];
+            stateVector = new long[wordCount];
+        }else{
+            Arrays.fill(tableMasks, 0, TABLE_SIZE * wordCount, 0L);
+        }
+        if (extendedMasks.length < extendedChars.length * wordCount){ // Keep the extended masks in step with the word count.
+            extendedMasks = new long[extendedChars.length * wordCount];
+        }
+        extendedCount = 0;
+        for (int i = 0; i < patternLength; i++){
+            char patternChar = pattern.charAt(i);
+            long bit         = 1L << (i & (WORD_SIZE - 1));
+            int  word        = i / WORD_SIZE;
+            if (patternChar < TABLE_SIZE){
+                tableMasks[patternChar * wordCount + word] |= bit; // Mark the position of this character.
+            }else{
+                int slot = getExtendedSlot(patternChar);
+                if (slot < 0){ // First time we see this character.
+                    slot = addExtendedChar(patternChar);
+                }
+                extendedMasks[slot * wordCount + word] |= bit;
+            }
+        }
+    }
+
+    /**
+     * Gets the length of the current pattern.
+     * @return the pattern length.
+     */
+    public int getPatternLength(){
+        return patternLength;
+    }
+
+    /**
+     * Gets the longest common subsequence length between the pattern and a text.
+     * @param text the text.
+     * @return the longest common subsequence length.
+     */
+    public int getLength(String text){
+        if (patternLength == 0){
+            return 0;
+        }
+        if (wordCount == 1){ // Most names and tags are short so keep a fast path for a single word.
+            long vector = -1L;
+            for (int i = 0; i < text.length(); i++){
+                long matches = getMask(text.charAt(i), 0);
+                long kept    = vector & matches;
+                vector       = (vector + kept) | (vector - kept);
+            }
+            return patternLength - Long.bitCount(vector & lastWordMask);
+        }
+        Arrays.fill(stateVector, 0, wordCount, -1L);
+        for (int i = 0; i < text.length(); i++){
+            advance(text.charAt(i));
+        }
+        return getMultiWordLength();
+    }
+
+    /**
+     * Gets the longest common subsequence length between the pattern and a range of a character array.
+     * @param text the character array holding the text.
+     * @param start the first index of the text (inclusive).
+     * @param end the last index of the text (exclusive).
+     * @return the longest common subsequence length.
+     */
+    public int getLength(char[] text, int start, int end){
+        if (patternLength == 0){
+            return 0;
+        }
+        if (wordCount == 1){
+            long vector = -1L;
+            for (int i = start; i < end; i++){
+                long matches = getMask(text[i], 0);
+                long kept    = vector & matches;
+                vector       = (vector + kept) | (vector - kept);
+            }
+            return patternLength - Long.bitCount(vector & lastWordMask);
+        }
+        Arrays.fill(stateVector, 0, wordCount, -1L);
+        for (int i = start; i < end; i++){
+            advance(text[i]);
+        }
+        return getMultiWordLength();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Processes one text character on the multi-word state vector.
+     * The addition has to carry from one word into the next, the rest of the update is word local.
+     * @param textChar the text character.
+     */
+    private void advance(char textChar){
+        long carry = 0;
+        for (int word = 0; word < wordCount; word++){
+            long vector  = stateVector[word];
+            long matches = getMask(textChar, word);
+            long kept    = vector & matches;
+            long sum     = vector + kept + carry;
+            carry        = ((vector & kept) | ((vector | kept) & ~sum)) >>> 63; // Carry out of the top bit.
+            stateVector[word] = sum | (vector & ~matches);
+        }
+    }
+
+    /**
+     * Counts the longest common subsequence length out of the multi-word state vector.
+     * @return the longest common subsequence length.
+     */
+    private int getMultiWordLength(){
+        int unmatched = 0;
+        for (int word = 0; word < wordCount - 1; word++){
+            unmatched += Long.bitCount(stateVector[word]);
+        }
+        unmatched += Long.bitCount(stateVector[wordCount - 1] & lastWordMask);
+        return patternLength - unmatched;
+    }
+
+    /**
+     * Gets one word of the match mask for a character.
+     * @param textChar the character.
+     * @param word the word index.
+     * @return the mask with a bit set for every pattern position holding the character.
+     */
+    private long getMask(char textChar, int word){
+        if (textChar < TABLE_SIZE){
+            return tableMasks[textChar * wordCount + word];
+        }
+        int slot = getExtendedSlot(textChar);
+        return slot < 0 ? 0L : extendedMasks[slot * wordCount + word];
+    }
+
+    /**
+     * Finds the slot of a character outside of the table.
+     * @param patternChar the character.
+     * @return the slot or -1 if the pattern does not have the character.
+     */
+    private int getExtendedSlot(char patternChar){
+        for (int slot = 0; slot < extendedCount; slot++){ // Patterns rarely have more than a few of these so a scan is enough.
+            if (extendedChars[slot] == patternChar){
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a character outside of the table to the pattern.
+     * @param patternChar the character.
+     * @return the new slot.
+     */
+    private int addExtendedChar(char patternChar){
+        if (extendedCount == extendedChars.length){ // Grow the extended tables.
+            int newCapacity = Math.max(4, extendedCount * 2);
+            extendedChars   = Arrays.copyOf(extendedChars, newCapacity);
+            extendedMasks   = Arrays.copyOf(extendedMasks, newCapacity * wordCount);
+        }
+        Arrays.fill(extendedMasks, extendedCount * wordCount, (extendedCount + 1) * wordCount, 0L);
+        extendedChars[extendedCount] = patternChar;
+        return extendedCount++;
+    }
+}
@@ -2,10 +2,15 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.util.*;
+import java.util.function.Supplier;
 
 /**
  * The root class for the catalog application.
+ * Keeps a back and forward history of the loaded pages. Only the pages closest to the current one are kept,
+ * pages further away are released and built again once they are gone back to.
  * @author Li
  * Helpful links:
  * https://docs.oracle.com/javase/tutorial/uiswing/layout/visual.html
@@ -14,7 +19,8 @@ public abstract class Catalog extends JFrame {
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     //-- CONSTANTS
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
-    private final int PAGE_STACK_THRESHOLD       = 5;
+    private final int PAGE_STACK_THRESHOLD       = 5;  // Pages kept on each side of the current page, further ones are released.
+    private final int HISTORY_LIMIT              = 50; // Pages remembered on each side of the current page.
     private final int PAGE_WIDTH                 = 1024, PAGE_HEIGHT = 768;
     private final int PREF_LENGTH                = 1244;
     private final int DIVIDER_WIDTH              = 200;
@@ -25,25 +31,163 @@ public abstract class Catalog extends JFrame {
     //-- OBJECT VALUES.
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     private ArrayList<Navigation> navigationList = new ArrayList<>();
-    private ArrayList<Page>       pageList       = new ArrayList<>();
     private JPanel NavigationFrame;
     private JSplitPane SplitPane;
     private JLabel logoIcon;
+    private PageEntry            currentEntry;                         // The page on screen.
+    private ArrayList<PageEntry> backHistory    = new ArrayList<>();   // The pages before the current one, the closest last.
+    private ArrayList<PageEntry> forwardHistory = new ArrayList<>();   // The pages gone back from, the closest last.
+    private PurchaseJournal      purchaseJournal;                      // Keeps the purchases on disk, null if they only live in memory.
 
+    /**
+     * A page in the history.
+     */
+    private static class PageEntry {
+        private Page           page;        // Null once released.
+        private Supplier<Page> pageBuilder; // Builds the page again after it was released, null if the page is kept for good.
+    }
 
     /**
      * loads a page
+     * The page is kept for good, like the pages of the navigation buttons.
      * @param o the page that should be loaded.
      */
     public void loadPage(Page o){
-        if (o != null) {
-            for (Page page : pageList) {
-                if (page.isDrawn()) {
-                    page.undraw();
+        loadPage(o, null);
+    }
+
+    /**
+     * Loads a page, after the current one in the history. Anything that was gone back from is forgotten.
+     * @param o the page that should be loaded.
+     * @param pageBuilder builds the page again if the history released it, or null to keep the page for good.
+     */
+    public void loadPage(Page o, Supplier<Page> pageBuilder){
+        if (o == null){
+            return;
+        }
+        if (currentEntry != null && currentEntry.page == o){ // Already on screen.
+            showEntry(currentEntry);
+            return;
+        }
+        PageEntry entry   = new PageEntry();
+        entry.page        = o;
+        entry.pageBuilder = pageBuilder;
+        if (currentEntry != null){
+            pushHistory(backHistory, currentEntry);
+        }
+        forwardHistory.clear();
+        showEntry(entry);
+    }
+
+    /**
+     * Goes back to the page before the current one.
+     * @return true if there was a page to go back to.
+     */
+    public boolean goBack(){
+        if (backHistory.isEmpty()){
+            return false;
+        }
+        PageEntry entry = backHistory.remove(backHistory.size() - 1);
+        pushHistory(forwardHistory, currentEntry);
+        showEntry(entry);
+        return true;
+    }
+
+    /**
+     * Goes forward to the page that was last gone back from.
+     * @return true if there was a page to go forward to.
+     */
+    public boolean goForward(){
+        if (forwardHistory.isEmpty()){
+            return false;
+        }
+        PageEntry entry = forwardHistory.remove(forwardHistory.size() - 1);
+        pushHistory(backHistory, currentEntry);
+        showEntry(entry);
+        return true;
+    }
+
+    /**
+     * Checks if there is a page to go back to.
+     * @return true if there is.
+     */
+    public boolean canGoBack(){
+        return !backHistory.isEmpty();
+    }
+
+    /**
+     * Checks if there is a page to go forward to.
+     * @return true if there is.
+     */
+    public boolean canGoForward(){
+        return !forwardHistory.isEmpty();
+    }
+
+    /**
+     * Gets the page on screen.
+     * @return the current page, or null if none was loaded yet.
+     */
+    public Page getCurrentPage(){
+        return currentEntry == null ? null : currentEntry.page;
+    }
+
+    /**
+     * Gets the journal that keeps the purchases on disk.
+     * @return the journal, or null if purchases only live in memory.
+     */
+    public PurchaseJournal getPurchaseJournal(){
+        return purchaseJournal;
+    }
+
+    /**
+     * Sets the journal that keeps the purchases on disk.
+     * @param purchaseJournal the journal, or null to only keep purchases in memory.
+     */
+    public void setPurchaseJournal(PurchaseJournal purchaseJournal){
+        this.purchaseJournal = purchaseJournal;
+    }
+
+    /**
+     * Puts the page on screen, building it again if it was released.
+     * @param entry the history entry of the page.
+     */
+    private void showEntry(PageEntry entry){
+        if (entry.page == null){ // Released, build it again.
+            entry.page = entry.pageBuilder.get();
+        }
+        if (currentEntry != null && currentEntry.page != entry.page){ // Only the current page can be drawn.
+            currentEntry.page.undraw();
+        }
+        currentEntry = entry;
+        entry.page.draw();
+        SplitPane.setRightComponent(entry.page);
+        for (Navigation navigator : navigationList){ // Highlight the navigation button of the page, if it has one.
+            if (navigator.getPage() == entry.page){
+                for (Navigation otherNavigator : navigationList){
+                    otherNavigator.setActiveStatus(otherNavigator == navigator);
                 }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Pushes a page onto one side of the history.
+     * Pages move one step away from the current page at a time, so only the page that just moved past the threshold has to be released.
+     * @param history the back or forward history.
+     * @param entry the history entry of the page.
+     */
+    private void pushHistory(ArrayList<PageEntry> history, PageEntry entry){
+        history.add(entry);
+        if (history.size() > HISTORY_LIMIT){ // Forget the oldest page.
+            history.remove(0);
+        }
+        int releasedIndex = history.size() - 1 - PAGE_STACK_THRESHOLD;
+        if (releasedIndex >= 0){
+            PageEntry releasedEntry = history.get(releasedIndex);
+            if (releasedEntry.pageBuilder != null && releasedEntry.page != getCurrentPage()){
+                releasedEntry.page = null; // Let it be collected, it is built again when needed.
             }
-            o.draw();
-            SplitPane.setRightComponent(o);
         }
     }
 
@@ -69,14 +213,6 @@ public abstract class Catalog extends JFrame {
 
     }
 
-    /**
-     * Add page object to Catalog.
-     * @param o the page object.
-     */
-    public void addPage(Page o){
-        this.pageList.add(o);
-    }
-
     /**
      * add navigator to the catalog.
      * @param o The navigation button.
@@ -189,6 +325,21 @@ public abstract class Catalog extends JFrame {
                         .addComponent(SplitPane, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE) // Set the vertical group.
         );
 
+        // Alt+Left and Alt+Right go through the history, like in a browser.
+        JRootPane rootPane = getRootPane();
+        rootPane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_LEFT, InputEvent.ALT_DOWN_MASK), "goBack");
+        rootPane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT, InputEvent.ALT_DOWN_MASK), "goForward");
+        rootPane.getActionMap().put("goBack", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                goBack();
+            }
+        });
+        rootPane.getActionMap().put("goForward", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                goForward();
+            }
+        });
+
         pack();
         setLocationRelativeTo(null); // Center the application
     }
@@ -0,0 +1,375 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * A catalog stored in a compact binary file.
+ * Every string is stored once in a string table, so tags and authors shared by many items are dictionary encoded.
+ * The numbers are fixed width columns, one value per item, so an item is read straight from its index.
+ * Opening a file only maps it into memory. Items are built the first time they are asked for, and the same item object is handed out after that.
+ *
+ * The file is laid out as:
+ * <pre>
+ * header          magic, version, item count, tag reference count, string count, string data length
+ * name ids        int per item
+ * description ids int per item
+ * author ids      int per item
+ * robux prices    int per item
+ * stocks          int per item
+ * thresholds      int per item
+ * tag starts      int per item plus one, the tags of item i are tag ids [start i, start i + 1)
+ * tag ids         int per tag reference
+ * string offsets  int per string plus one, into the string data
+ * flags           byte per item, bit 0 is should warn low stock
+ * string data     UTF-8
+ * </pre>
+ * Every number is big endian. The whole file has to stay under 2 GB, the most a single mapping holds.
+ */
+public class CatalogFile {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final int FILE_MAGIC      = 0x52434154; // "RCAT"
+    private static final int FILE_VERSION    = 1;
+    private static final int HEADER_BYTES    = 6 * Integer.BYTES;
+    private static final int WARN_LOW_STOCK  = 1; // Flag bit.
+    private static final int PAGE_BITS       = 12; // Built items and decoded strings are kept in pages of 4096, allocated on first use.
+    private static final int PAGE_MASK       = (1 << PAGE_BITS) - 1;
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private MappedByteBuffer buffer;
+    private int itemCount, stringCount;
+    private int namePosition, descriptionPosition, authorPosition, pricePosition, stockPosition, thresholdPosition;
+    private int tagStartPosition, tagIdPosition, stringOffsetPosition, flagPosition, stringDataPosition;
+    private Item[][]   items;   // Built on first use.
+    private String[][] strings; // Decoded on first use, so every item shares one copy of a tag or author.
+    private int      builtItemCount;
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Writes items to a catalog file, replacing the file if it exists.
+     * @param file the file to write.
+     * @param catalogItems the items, in the order they are loaded back.
+     * @throws IOException if the file can not be written.
+     */
+    public static void write(Path file, List<Item> catalogItems) throws IOException {
+        int size = catalogItems.size();
+        HashMap<String, Integer> stringIds = new HashMap<>();
+        ByteArrayOutputStream stringData = new ByteArrayOutputStream();
+        IntColumn stringOffsets = new IntColumn(1024);
+        int[] nameIds = new int[size], descriptionIds = new int[size], authorIds = new int[size];
+        int[] tagStarts = new int[size + 1];
+        IntColumn tagIds = new IntColumn(size * 2);
+        byte[] flags = new byte[size];
+        stringOffsets.add(0);
+        for (int i = 0; i < size; i++){
+            Item item = catalogItems.get(i);
+            nameIds[i]        = getStringId(item.toString(), stringIds, stringData, stringOffsets);
+            descriptionIds[i] = getStringId(item.getDescription(), stringIds, stringData, stringOffsets);
+            authorIds[i]      = getStringId(item.getAuthor(), stringIds, stringData, stringOffsets);
+            tagStarts[i]      = tagIds.size();
+            for (String tag : item.getItemTags()){
+                tagIds.add(getStringId(tag, stringIds, stringData, stringOffsets));
+            }
+            flags[i] = (byte)(item.isShouldWarnLowStock() ? WARN_LOW_STOCK : 0);
+        }
+        tagStarts[size] = tagIds.size();
+        long fileBytes = HEADER_BYTES + 4L * (6L * size + size + 1 + tagIds.size() + stringOffsets.size()) + size + stringData.size();
+        if (fileBytes > Integer.MAX_VALUE){
+            throw new IOException("Catalog of " + fileBytes + " bytes is too large for one file");
+        }
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))){
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeInt(size);
+            output.writeInt(tagIds.size());
+            output.writeInt(stringIds.size());
+            output.writeInt(stringData.size());
+            writeInts(output, nameIds, size);
+            writeInts(output, descriptionIds, size);
+            writeInts(output, authorIds, size);
+            for (Item item : catalogItems){
+                output.writeInt(item.getRobuxPrice());
+            }
+            for (Item item : catalogItems){
+                output.writeInt(item.getStock());
+            }
+            for (Item item : catalogItems){
+                output.writeInt(item.getLowStockThreshold());
+            }
+            writeInts(output, tagStarts, size + 1);
+            writeInts(output, tagIds.values, tagIds.size());
+            writeInts(output, stringOffsets.values, stringOffsets.size());
+            output.write(flags);
+            stringData.writeTo(output);
+        }
+    }
+
+    /**
+     * Opens a catalog file by mapping it into memory. Nothing is read besides the header.
+     * @param file the file to open.
+     * @return the catalog file.
+     * @throws IOException if the file can not be read or is not a catalog file.
+     */
+    public static CatalogFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){ // The mapping stays valid after the channel is closed.
+            if (channel.size() > Integer.MAX_VALUE){
+                throw new IOException(file + " is too large to be a catalog file");
+            }
+            return new CatalogFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file);
+        }
+    }
+
+    /**
+     * Gets the amount of items in the catalog.
+     * @return the item count.
+     */
+    public int size(){
+        return itemCount;
+    }
+
+    /**
+     * Gets an item, building it the first time it is asked for.
+     * @param index the index of the item.
+     * @return the item, the same object every time.
+     */
+    public synchronized Item getItem(int index){
+        Objects.checkIndex(index, itemCount);
+        Item[] page = items[index >>> PAGE_BITS];
+        if (page == null){
+            page = new Item[1 << PAGE_BITS];
+            items[index >>> PAGE_BITS] = page;
+        }
+        Item item = page[index & PAGE_MASK];
+        if (item == null){
+            int tagStart = buffer.getInt(tagStartPosition + 4 * index);
+            String[] tags = new String[buffer.getInt(tagStartPosition + 4 * (index + 1)) - tagStart];
+            for (int i = 0; i < tags.length; i++){
+                tags[i] = getString(buffer.getInt(tagIdPosition + 4 * (tagStart + i)));
+            }
+            item = new Item(
+                    getString(buffer.getInt(namePosition + 4 * index)),
+                    getString(buffer.getInt(descriptionPosition + 4 * index)),
+                    getString(buffer.getInt(authorPosition + 4 * index)),
+                    buffer.getInt(pricePosition + 4 * index),
+                    buffer.getInt(stockPosition + 4 * index),
+                    tags,
+                    (buffer.get(flagPosition + index) & WARN_LOW_STOCK) != 0,
+                    buffer.getInt(thresholdPosition + 4 * index)
+            );
+            page[index & PAGE_MASK] = item;
+            builtItemCount++;
+        }
+        return item;
+    }
+
+    /**
+     * Gets the name of an item without building it.
+     * @param index the index of the item.
+     * @return the item name.
+     */
+    public synchronized String getItemName(int index){
+        return getString(buffer.getInt(namePosition + 4 * Objects.checkIndex(index, itemCount)));
+    }
+
+    /**
+     * Gets the price of an item without building it.
+     * The file is read only, so this is the price the catalog was written with.
+     * @param index the index of the item.
+     * @return the price in robux.
+     */
+    public int getRobuxPrice(int index){
+        return buffer.getInt(pricePosition + 4 * Objects.checkIndex(index, itemCount));
+    }
+
+    /**
+     * Gets the stock of an item without building it.
+     * The file is read only, so this is the stock the catalog was written with.
+     * @param index the index of the item.
+     * @return the stock.
+     */
+    public int getStock(int index){
+        return buffer.getInt(stockPosition + 4 * Objects.checkIndex(index, itemCount));
+    }
+
+    /**
+     * Gets the items as a list that builds every item the first time it is read.
+     * @return a read only view of the items.
+     */
+    public List<Item> asList(){
+        return new ItemList();
+    }
+
+    /**
+     * Gets how many items were built so far.
+     * @return the built item count.
+     */
+    public synchronized int getBuiltItemCount(){
+        return builtItemCount;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * A read only list of the items which builds them as they are read.
+     */
+    private class ItemList extends AbstractList<Item> implements RandomAccess {
+        @Override
+        public Item get(int index){
+            return getItem(index);
+        }
+
+        @Override
+        public int size(){
+            return itemCount;
+        }
+    }
+
+    /**
+     * A growable int column, used while writing.
+     */
+    private static class IntColumn {
+        private int[] values;
+        private int   size;
+
+        /**
+         * Adds a value at the end.
+         * @param value the value.
+         */
+        private void add(int value){
+            if (size == values.length){
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = value;
+        }
+
+        /**
+         * Gets the amount of values.
+         * @return the size.
+         */
+        private int size(){
+            return size;
+        }
+
+        /**
+         * Constructor for the int column.
+         * @param capacity the starting capacity.
+         */
+        private IntColumn(int capacity){
+            values = new int[Math.max(16, capacity)];
+        }
+    }
+
+    /**
+     * Gets the id of a string in the string table, adding it if it is new.
+     * @param string the string.
+     * @param stringIds the ids of the strings added so far.
+     * @param stringData the UTF-8 bytes of the strings added so far.
+     * @param stringOffsets where every string starts in the string data, and where the next one will start.
+     * @return the string id.
+     */
+    private static int getStringId(String string, HashMap<String, Integer> stringIds, ByteArrayOutputStream stringData, IntColumn stringOffsets){
+        Integer id = stringIds.get(string);
+        if (id == null){
+            id = stringIds.size();
+            stringIds.put(string, id);
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            stringData.write(bytes, 0, bytes.length);
+            stringOffsets.add(stringData.size());
+        }
+        return id;
+    }
+
+    /**
+     * Writes the first values of an int array.
+     * @param output the output.
+     * @param values the values.
+     * @param count the amount of values to write.
+     * @throws IOException if the values can not be written.
+     */
+    private static void writeInts(DataOutputStream output, int[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++){
+            output.writeInt(values[i]);
+        }
+    }
+
+    /**
+     * Gets a string from the string table, decoding it the first time.
+     * @param id the string id.
+     * @return the string.
+     */
+    private String getString(int id){
+        String[] page = strings[id >>> PAGE_BITS];
+        if (page == null){
+            page = new String[1 << PAGE_BITS];
+            strings[id >>> PAGE_BITS] = page;
+        }
+        String string = page[id & PAGE_MASK];
+        if (string == null){
+            int start  = buffer.getInt(stringOffsetPosition + 4 * id);
+            int end    = buffer.getInt(stringOffsetPosition + 4 * (id + 1));
+            byte[] bytes = new byte[end - start];
+            ByteBuffer view = buffer.duplicate(); // Positioned reads would move the shared buffer.
+            view.position(stringDataPosition + start);
+            view.get(bytes);
+            string = new String(bytes, StandardCharsets.UTF_8);
+            page[id & PAGE_MASK] = string;
+        }
+        return string;
+    }
+
+    /**
+     * Constructor for the catalog file.
+     * Checks the header and works out where every column starts.
+     * @param buffer the mapped file.
+     * @param file the file, for the errors.
+     * @throws IOException if it is not a catalog file.
+     */
+    private CatalogFile(MappedByteBuffer buffer, Path file) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != FILE_MAGIC){
+            throw new IOException(file + " is not a catalog file");
+        }
+        if (buffer.getInt(4) != FILE_VERSION){
+            throw new IOException(file + " is catalog version " + buffer.getInt(4) + ", only version " + FILE_VERSION + " can be read");
+        }
+        itemCount        = buffer.getInt(8);
+        int tagCount     = buffer.getInt(12);
+        stringCount      = buffer.getInt(16);
+        int stringBytes  = buffer.getInt(20);
+        long itemColumnBytes = 4L * itemCount;
+        long position        = HEADER_BYTES;
+        namePosition         = (int)position;  position += itemColumnBytes;
+        descriptionPosition  = (int)position;  position += itemColumnBytes;
+        authorPosition       = (int)position;  position += itemColumnBytes;
+        pricePosition        = (int)position;  position += itemColumnBytes;
+        stockPosition        = (int)position;  position += itemColumnBytes;
+        thresholdPosition    = (int)position;  position += itemColumnBytes;
+        tagStartPosition     = (int)position;  position += itemColumnBytes + 4;
+        tagIdPosition        = (int)position;  position += 4L * tagCount;
+        stringOffsetPosition = (int)position;  position += 4L * (stringCount + 1);
+        flagPosition         = (int)position;  position += itemCount;
+        stringDataPosition   = (int)position;  position += stringBytes;
+        if (itemCount < 0 || tagCount < 0 || stringCount < 0 || stringBytes < 0 || position != buffer.capacity()){
+            throw new IOException(file + " is truncated or corrupted");
+        }
+        items   = new Item[(itemCount + PAGE_MASK) >>> PAGE_BITS][];
+        strings = new String[(stringCount + PAGE_MASK) >>> PAGE_BITS][];
+    }
+}
@@ -0,0 +1,661 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Streams items out of CSV or JSON lines feeds.
+ * The feed is read through a fixed size buffer one record at a time and the items are handed out in batches,
+ * so memory stays the same however large the feed is.
+ *
+ * CSV feeds start with a header naming the columns in any order. JSON lines feeds hold one object per line.
+ * The fields are name, description, author, price, stock, tags, warn and threshold, of which name, price and stock are required.
+ * CSV tags are separated by |, JSON tags are an array of strings. Records that can not be read are skipped and counted.
+ */
+public class CatalogImporter {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final int    BUFFER_CHARS      = 64 * 1024;
+    private static final int    MAX_RECORD_CHARS  = 1024 * 1024; // A longer record is a broken feed, most likely a quote that is never closed.
+    private static final int    MAX_REPORTED_SKIPS = 10;         // Skipped records reported on the error stream, the rest are only counted.
+    private static final String TAG_SEPARATOR     = "\\|";
+    private static final String[] FIELD_NAMES     = {"name", "description", "author", "price", "stock", "tags", "warn", "threshold"};
+    private static final int    NAME = 0, DESCRIPTION = 1, AUTHOR = 2, PRICE = 3, STOCK = 4, TAGS = 5, WARN = 6, THRESHOLD = 7;
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private int  batchSize;
+    private long itemCount, skippedCount, byteCount, elapsedNanos;
+    private long recordNumber;
+    private char[] buffer = new char[BUFFER_CHARS];
+    private int    bufferPosition, bufferLimit;
+    private Reader reader;
+    private StringBuilder field = new StringBuilder();
+
+    /**
+     * The formats a feed can be in.
+     */
+    public enum Format {
+        CSV, JSON_LINES;
+
+        /**
+         * Picks the format from a file name.
+         * @param fileName the file name.
+         * @return JSON_LINES for .jsonl, .ndjson and .json files, CSV otherwise.
+         */
+        public static Format fromFileName(String fileName){
+            String lowerName = fileName.toLowerCase(Locale.ROOT);
+            if (lowerName.endsWith(".jsonl") || lowerName.endsWith(".ndjson") || lowerName.endsWith(".json")){
+                return JSON_LINES;
+            }
+            return CSV;
+        }
+    }
+
+    /**
+     * Counts the bytes read from the feed.
+     */
+    private class CountingInputStream extends FilterInputStream {
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1){
+                byteCount++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = super.read(bytes, offset, length);
+            if (read > 0){
+                byteCount += read;
+            }
+            return read;
+        }
+
+        /**
+         * Constructor for the counting input stream.
+         * @param input the stream to count.
+         */
+        private CountingInputStream(InputStream input){
+            super(input);
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Imports a feed file, picking the format from the file name.
+     * @param file the feed.
+     * @param onBatch called on this thread with every batch of items, the list belongs to the caller.
+     * @throws IOException if the file can not be read or is not a feed.
+     */
+    public void importFile(Path file, Consumer<List<Item>> onBatch) throws IOException {
+        try (InputStream input = Files.newInputStream(file)){
+            importStream(input, Format.fromFileName(file.getFileName().toString()), onBatch);
+        }
+    }
+
+    /**
+     * Imports a feed. The stream is not closed.
+     * @param input the feed, in UTF-8.
+     * @param format the format of the feed.
+     * @param onBatch called on this thread with every batch of items, the list belongs to the caller.
+     * @throws IOException if the feed can not be read or is not a feed.
+     */
+    public void importStream(InputStream input, Format format, Consumer<List<Item>> onBatch) throws IOException {
+        long startTime = System.nanoTime();
+        reader         = new InputStreamReader(new CountingInputStream(input), StandardCharsets.UTF_8);
+        bufferPosition = 0;
+        bufferLimit    = 0;
+        recordNumber   = 0;
+        try {
+            if (format == Format.CSV){
+                importCsv(onBatch);
+            }else{
+                importJsonLines(onBatch);
+            }
+        } finally {
+            reader        = null;
+            elapsedNanos += System.nanoTime() - startTime;
+        }
+    }
+
+    /**
+     * Gets how many items were imported.
+     * @return the item count.
+     */
+    public long getItemCount(){
+        return itemCount;
+    }
+
+    /**
+     * Gets how many records were skipped because they could not be read.
+     * @return the skipped count.
+     */
+    public long getSkippedCount(){
+        return skippedCount;
+    }
+
+    /**
+     * Gets how many bytes of feed were read.
+     * @return the byte count.
+     */
+    public long getByteCount(){
+        return byteCount;
+    }
+
+    /**
+     * Gets the time spent importing, including the time spent in the batch callbacks.
+     * @return the elapsed nanoseconds.
+     */
+    public long getElapsedNanos(){
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets a one line summary of the import throughput.
+     * @return the report.
+     */
+    public String getReport(){
+        double seconds = Math.max(1, elapsedNanos) / 1e9;
+        return String.format("%d items (%d skipped), %.1f MB in %.2f s: %.0f items/s, %.1f MB/s", itemCount, skippedCount,
+                byteCount / (1024.0 * 1024), seconds, itemCount / seconds, byteCount / (1024.0 * 1024) / seconds);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CSV
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Imports a CSV feed.
+     * @param onBatch called with every batch of items.
+     * @throws IOException if the feed can not be read or has no header.
+     */
+    private void importCsv(Consumer<List<Item>> onBatch) throws IOException {
+        ArrayList<String> fields = new ArrayList<>();
+        if (!readCsvRecord(fields)){
+            throw new IOException("CSV feed has no header");
+        }
+        int[] columns = new int[FIELD_NAMES.length]; // The column of every field, -1 if the feed does not have it.
+        Arrays.fill(columns, -1);
+        for (int i = 0; i < fields.size(); i++){ // Header names in any case, a byte order mark is dropped.
+            int fieldIndex = indexOfField(fields.get(i).replace("\uFEFF", "").trim().toLowerCase(Locale.ROOT));
+            if (fieldIndex != -1){
+                columns[fieldIndex] = i;
+            }
+        }
+        if (columns[NAME] == -1 || columns[PRICE] == -1 || columns[STOCK] == -1){
+            throw new IOException("CSV header needs name, price and stock columns, found " + fields);
+        }
+        ArrayList<Item> batch = new ArrayList<>(batchSize);
+        String[] values = new String[FIELD_NAMES.length];
+        while (readCsvRecord(fields)){
+            if (fields.size() == 1 && fields.get(0).isEmpty()){ // Blank line.
+                continue;
+            }
+            for (int i = 0; i < values.length; i++){
+                values[i] = columns[i] != -1 && columns[i] < fields.size() ? fields.get(columns[i]) : null;
+            }
+            String[] tags = values[TAGS] == null || values[TAGS].trim().isEmpty() ? new String[0] : values[TAGS].trim().split(TAG_SEPARATOR);
+            for (int i = 0; i < tags.length; i++){
+                tags[i] = tags[i].trim();
+            }
+            addItem(values, tags, batch, onBatch);
+        }
+        finishBatch(batch, onBatch);
+    }
+
+    /**
+     * Reads the fields of the next CSV record. Quoted fields may hold separators, doubled quotes and line breaks.
+     * @param fields filled with the fields of the record.
+     * @return false at the end of the feed.
+     * @throws IOException if the feed can not be read or a record is too long.
+     */
+    private boolean readCsvRecord(ArrayList<String> fields) throws IOException {
+        fields.clear();
+        field.setLength(0);
+        int character = read();
+        if (character == -1){
+            return false;
+        }
+        recordNumber++;
+        boolean isQuoted    = false;
+        int     recordChars = 0; // Every character read for the record, so many short fields count too.
+        while (character != -1){
+            if (++recordChars > MAX_RECORD_CHARS){
+                throw new IOException("CSV record " + recordNumber + " is longer than " + MAX_RECORD_CHARS + " characters, is a quote left open?");
+            }
+            if (isQuoted){
+                if (character == '"'){
+                    if (peek() == '"'){ // A doubled quote is a quote.
+                        read();
+                        field.append('"');
+                    }else{
+                        isQuoted = false;
+                    }
+                }else{
+                    field.append((char)character);
+                }
+            }else if (character == '"' && field.length() == 0){
+                isQuoted = true;
+            }else if (character == ','){
+                fields.add(field.toString());
+                field.setLength(0);
+            }else if (character == '\n'){
+                break;
+            }else if (character != '\r'){
+                field.append((char)character);
+            }
+            character = read();
+        }
+        fields.add(field.toString());
+        return true;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- JSON LINES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Imports a JSON lines feed.
+     * @param onBatch called with every batch of items.
+     * @throws IOException if the feed can not be read.
+     */
+    private void importJsonLines(Consumer<List<Item>> onBatch) throws IOException {
+        ArrayList<Item> batch = new ArrayList<>(batchSize);
+        HashMap<String, Object> object = new HashMap<>();
+        String[] values = new String[FIELD_NAMES.length];
+        StringBuilder line = new StringBuilder();
+        while (readLine(line)){
+            int start = 0;
+            while (start < line.length() && Character.isWhitespace(line.charAt(start))){
+                start++;
+            }
+            if (start == line.length()){ // Blank line.
+                continue;
+            }
+            object.clear();
+            String[] tags;
+            try {
+                JsonParser parser = new JsonParser(line, start);
+                parser.readObject(object);
+                for (int i = 0; i < values.length; i++){
+                    Object value = object.get(FIELD_NAMES[i]);
+                    values[i] = value == null || value instanceof List ? null : value.toString();
+                }
+                Object tagValue = object.get(FIELD_NAMES[TAGS]);
+                if (tagValue instanceof List){
+                    List<?> tagList = (List<?>)tagValue;
+                    tags = new String[tagList.size()];
+                    for (int i = 0; i < tags.length; i++){
+                        tags[i] = String.valueOf(tagList.get(i));
+                    }
+                }else{
+                    tags = values[TAGS] == null ? new String[0] : values[TAGS].split(TAG_SEPARATOR);
+                }
+            } catch (IllegalArgumentException e) {
+                skipRecord(e.getMessage());
+                continue;
+            }
+            addItem(values, tags, batch, onBatch);
+        }
+        finishBatch(batch, onBatch);
+    }
+
+    /**
+     * Reads the next line.
+     * @param line filled with the line, without the line break.
+     * @return false at the end of the feed.
+     * @throws IOException if the feed can not be read or a line is too long.
+     */
+    private boolean readLine(StringBuilder line) throws IOException {
+        line.setLength(0);
+        int character = read();
+        if (character == -1){
+            return false;
+        }
+        recordNumber++;
+        while (character != -1 && character != '\n'){
+            if (character != '\r'){
+                line.append((char)character);
+            }
+            if (line.length() > MAX_RECORD_CHARS){
+                throw new IOException("JSON line " + recordNumber + " is longer than " + MAX_RECORD_CHARS + " characters");
+            }
+            character = read();
+        }
+        return true;
+    }
+
+    /**
+     * Parses one JSON object of a line.
+     * Only the top level fields are kept, nested objects are skipped.
+     */
+    private static class JsonParser {
+        private CharSequence text;
+        private int position;
+
+        /**
+         * Reads an object.
+         * @param object filled with the fields, strings, numbers as strings, booleans, lists or null.
+         */
+        private void readObject(HashMap<String, Object> object){
+            expect('{');
+            skipWhiteSpace();
+            if (peek() == '}'){
+                position++;
+                return;
+            }
+            while (true){
+                skipWhiteSpace();
+                String key = readString();
+                skipWhiteSpace();
+                expect(':');
+                object.put(key, readValue());
+                skipWhiteSpace();
+                char next = next();
+                if (next == '}'){
+                    return;
+                }
+                if (next != ','){
+                    throw new IllegalArgumentException("expected , or } at " + (position - 1));
+                }
+            }
+        }
+
+        /**
+         * Reads any value.
+         * @return the value, nested objects are read as null.
+         */
+        private Object readValue(){
+            skipWhiteSpace();
+            char first = peek();
+            if (first == '"'){
+                return readString();
+            }
+            if (first == '['){
+                position++;
+                ArrayList<Object> list = new ArrayList<>();
+                skipWhiteSpace();
+                if (peek() == ']'){
+                    position++;
+                    return list;
+                }
+                while (true){
+                    list.add(readValue());
+                    skipWhiteSpace();
+                    char next = next();
+                    if (next == ']'){
+                        return list;
+                    }
+                    if (next != ','){
+                        throw new IllegalArgumentException("expected , or ] at " + (position - 1));
+                    }
+                }
+            }
+            if (first == '{'){
+                readObject(new HashMap<>());
+                return null;
+            }
+            int start = position; // A number, true, false or null.
+            while (position < text.length() && ",}] \t".indexOf(text.charAt(position)) == -1){
+                position++;
+            }
+            String literal = text.subSequence(start, position).toString();
+            if (literal.equals("null")){
+                return null;
+            }
+            if (literal.isEmpty()){
+                throw new IllegalArgumentException("missing value at " + start);
+            }
+            return literal;
+        }
+
+        /**
+         * Reads a string, with its escapes.
+         * @return the string.
+         */
+        private String readString(){
+            expect('"');
+            StringBuilder string = new StringBuilder();
+            while (true){
+                char character = next();
+                if (character == '"'){
+                    return string.toString();
+                }
+                if (character != '\\'){
+                    string.append(character);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped){
+                    case 'b': string.append('\b'); break;
+                    case 'f': string.append('\f'); break;
+                    case 'n': string.append('\n'); break;
+                    case 'r': string.append('\r'); break;
+                    case 't': string.append('\t'); break;
+                    case 'u':
+                        if (position + 4 > text.length()){
+                            throw new IllegalArgumentException("short unicode escape at " + position);
+                        }
+                        string.append((char)Integer.parseInt(text.subSequence(position, position + 4).toString(), 16)); // Throws a NumberFormatException, which is an IllegalArgumentException.
+                        position += 4;
+                        break;
+                    default: string.append(escaped); // \" \\ and \/
+                }
+            }
+        }
+
+        /**
+         * Skips spaces and tabs.
+         */
+        private void skipWhiteSpace(){
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))){
+                position++;
+            }
+        }
+
+        /**
+         * Reads the next character, which has to be the expected one.
+         * @param expected the expected character.
+         */
+        private void expect(char expected){
+            if (next() != expected){
+                throw new IllegalArgumentException("expected " + expected + " at " + (position - 1));
+            }
+        }
+
+        /**
+         * Gets the next character without reading it.
+         * @return the character.
+         */
+        private char peek(){
+            if (position >= text.length()){
+                throw new IllegalArgumentException("line ends too early");
+            }
+            return text.charAt(position);
+        }
+
+        /**
+         * Reads the next character.
+         * @return the character.
+         */
+        private char next(){
+            char character = peek();
+            position++;
+            return character;
+        }
+
+        /**
+         * Constructor for the JSON parser.
+         * @param text the line.
+         * @param position where the object starts.
+         */
+        private JsonParser(CharSequence text, int position){
+            this.text     = text;
+            this.position = position;
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Builds an item from the fields of a record and adds it to the batch, handing the batch out once it is full.
+     * @param values the field values by field, null if missing.
+     * @param tags the tags.
+     * @param batch the batch being filled.
+     * @param onBatch called with the batch once it is full.
+     */
+    private void addItem(String[] values, String[] tags, ArrayList<Item> batch, Consumer<List<Item>> onBatch){
+        Item item;
+        try {
+            if (values[NAME] == null || values[NAME].trim().isEmpty()){
+                throw new IllegalArgumentException("no name");
+            }
+            item = new Item(
+                    values[NAME].trim(),
+                    values[DESCRIPTION] == null ? "" : values[DESCRIPTION],
+                    values[AUTHOR] == null ? "" : values[AUTHOR].trim(),
+                    parseNumber(values[PRICE], "price"),
+                    parseNumber(values[STOCK], "stock"),
+                    tags,
+                    parseFlag(values[WARN]),
+                    values[THRESHOLD] == null || values[THRESHOLD].trim().isEmpty() ? 0 : parseNumber(values[THRESHOLD], "threshold")
+            );
+        } catch (IllegalArgumentException e) {
+            skipRecord(e.getMessage());
+            return;
+        }
+        batch.add(item);
+        itemCount++;
+        if (batch.size() >= batchSize){
+            finishBatch(batch, onBatch);
+        }
+    }
+
+    /**
+     * Hands out the items of a batch and starts a new one.
+     * @param batch the batch, emptied afterwards.
+     * @param onBatch called with a copy of the batch if it has any items.
+     */
+    private void finishBatch(ArrayList<Item> batch, Consumer<List<Item>> onBatch){
+        if (!batch.isEmpty()){
+            onBatch.accept(new ArrayList<>(batch));
+            batch.clear();
+        }
+    }
+
+    /**
+     * Counts a skipped record, reporting the first few.
+     * @param reason why it was skipped.
+     */
+    private void skipRecord(String reason){
+        skippedCount++;
+        if (skippedCount <= MAX_REPORTED_SKIPS){
+            System.err.printf("IMPORT ERROR: RECORD %d SKIPPED (%s)\n", recordNumber, reason);
+        }
+    }
+
+    /**
+     * Parses a whole number.
+     * @param value the text.
+     * @param fieldName the field, for the error.
+     * @return the number.
+     */
+    private static int parseNumber(String value, String fieldName){
+        if (value == null){
+            throw new IllegalArgumentException("no " + fieldName);
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(fieldName + " " + value + " is not a whole number");
+        }
+    }
+
+    /**
+     * Parses a yes or no flag.
+     * @param value the text, true, yes or 1 for yes.
+     * @return the flag, false if it is missing.
+     */
+    private static boolean parseFlag(String value){
+        if (value == null){
+            return false;
+        }
+        String lowerValue = value.trim().toLowerCase(Locale.ROOT);
+        return lowerValue.equals("true") || lowerValue.equals("yes") || lowerValue.equals("1");
+    }
+
+    /**
+     * Gets the index of a field name.
+     * @param name the lower case name.
+     * @return the field index, or -1 if it is not a field.
+     */
+    private static int indexOfField(String name){
+        for (int i = 0; i < FIELD_NAMES.length; i++){
+            if (FIELD_NAMES[i].equals(name)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the next character from the buffer, filling it when it is empty.
+     * @return the character, or -1 at the end of the feed.
+     * @throws IOException if the feed can not be read.
+     */
+    private int read() throws IOException {
+        if (bufferPosition == bufferLimit && !fillBuffer()){
+            return -1;
+        }
+        return buffer[bufferPosition++];
+    }
+
+    /**
+     * Gets the next character without reading it.
+     * @return the character, or -1 at the end of the feed.
+     * @throws IOException if the feed can not be read.
+     */
+    private int peek() throws IOException {
+        if (bufferPosition == bufferLimit && !fillBuffer()){
+            return -1;
+        }
+        return buffer[bufferPosition];
+    }
+
+    /**
+     * Fills the buffer with the next part of the feed.
+     * @return false at the end of the feed.
+     * @throws IOException if the feed can not be read.
+     */
+    private boolean fillBuffer() throws IOException {
+        int read;
+        do {
+            read = reader.read(buffer, 0, buffer.length);
+        } while (read == 0);
+        if (read == -1){
+            return false;
+        }
+        bufferPosition = 0;
+        bufferLimit    = read;
+        return true;
+    }
+
+    /**
+     * Constructor for the catalog importer.
+     * @param batchSize the amount of items handed out at a time.
+     */
+    public CatalogImporter(int batchSize){
+        this.batchSize = Math.max(1, batchSize);
+    }
+}
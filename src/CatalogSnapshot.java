@@ -0,0 +1,312 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Checkpoints of the stock, price and purchasable state of every item, so a restart only replays the changes made after the latest one.
+ * A snapshot is not read off the items. A change is made before its record is durable, so the items never hold exactly the durable records
+ * up to some sequence. Instead a copy of the state is kept here and brought up to date from the durable journal records in the background,
+ * which gives the stock and the price at an exact sequence without ever holding up a buyer.
+ * Once a snapshot is written the journal segments before the older kept snapshot are deleted, so neither the journal nor the replay keeps growing.
+ *
+ * A snapshot file is laid out as:
+ * <pre>
+ * header   magic, version, item count, sequence (long)
+ * items    item key, stock, price, flags per item
+ * trailer  CRC32 of everything before it
+ * </pre>
+ * Every number is big endian. Items are matched by their index and the hash of their name, like in the purchase journal.
+ */
+public class CatalogSnapshot {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final int    FILE_MAGIC     = 0x5243534E; // "RCSN"
+    private static final int    FILE_VERSION   = 1;
+    private static final int    HEADER_BYTES   = 3 * Integer.BYTES + Long.BYTES;
+    private static final int    ITEM_BYTES     = 4 * Integer.BYTES;
+    private static final int    CHUNK_BYTES    = 1 << 16;
+    private static final int    PURCHASABLE    = 1; // Flag bit.
+    private static final int    KEPT_SNAPSHOTS = 2; // The one before the latest is kept in case the latest can not be read.
+    private static final String FILE_PREFIX    = "snapshot-", FILE_SUFFIX = ".snapshot";
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private Path directory;
+    private List<Item> items;
+    private int[]     stocks;       // The state copy, as of the sequence.
+    private int[]     prices;
+    private boolean[] purchasables;
+    private long sequence, writtenSequence = -1;
+    private long writtenCount;
+    private PurchaseJournal journal;
+    private Thread snapshotThread;
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Restores the items from the latest snapshot that can be read.
+     * @return the sequence of the restored snapshot, the journal has to be replayed after it. 0 if there was none.
+     * @throws IOException if the directory could not be read.
+     */
+    public long restoreLatest() throws IOException {
+        List<Path> snapshotPaths = listSnapshots();
+        for (int i = snapshotPaths.size() - 1; i >= 0; i--){ // Newest first.
+            try {
+                return restore(snapshotPaths.get(i));
+            } catch (IOException e) {
+                System.err.printf("SNAPSHOT ERROR: %s COULD NOT BE RESTORED (%s)\n", snapshotPaths.get(i), e);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Starts writing snapshots in the background.
+     * Has to be called right after the journal is opened, before any change, since the state copy starts out as the items are now.
+     * @param journal the purchase journal of the same items.
+     * @param intervalMillis the time between snapshots.
+     */
+    public synchronized void start(PurchaseJournal journal, long intervalMillis){
+        this.journal = journal;
+        this.sequence = journal.getLastSequence();
+        stocks       = new int[items.size()];
+        prices       = new int[items.size()];
+        purchasables = new boolean[items.size()];
+        for (int i = 0; i < stocks.length; i++){
+            stocks[i]       = items.get(i).getStock();
+            prices[i]       = items.get(i).getRobuxPrice();
+            purchasables[i] = items.get(i).isPurchasable();
+        }
+        if (intervalMillis <= 0){ // Only written when asked to.
+            return;
+        }
+        snapshotThread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()){
+                try {
+                    Thread.sleep(intervalMillis);
+                    write();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    System.err.printf("SNAPSHOT ERROR: %s COULD NOT BE WRITTEN (%s)\n", directory, e);
+                }
+            }
+        }, "catalog snapshot");
+        snapshotThread.setDaemon(true); // Do not keep the application alive.
+        snapshotThread.setPriority(Thread.MIN_PRIORITY); // Purchases come first.
+        snapshotThread.start();
+    }
+
+    /**
+     * Stops writing snapshots in the background.
+     */
+    public synchronized void stop(){
+        if (snapshotThread != null){
+            snapshotThread.interrupt();
+            snapshotThread = null;
+        }
+    }
+
+    /**
+     * Brings the state copy up to the durable end of the journal and writes it as the latest snapshot.
+     * Nothing is written if there were no changes since the last one.
+     * @return the sequence of the snapshot.
+     * @throws IOException if the journal could not be read or the snapshot could not be written.
+     */
+    public synchronized long write() throws IOException {
+        if (journal == null){
+            throw new IllegalStateException("Snapshots of " + directory + " were not started");
+        }
+        sequence = journal.readRecords(sequence, (recordSequence, type, itemIndex, value, purchasable) -> {
+            if (itemIndex < 0 || itemIndex >= stocks.length){
+                return;
+            }
+            switch (type){
+                case PURCHASE:
+                    stocks[itemIndex] -= value;
+                    purchasables[itemIndex] &= stocks[itemIndex] > 0; // Same as Item.tryPurchase.
+                    break;
+                case STOCK:
+                    stocks[itemIndex]       = value;
+                    purchasables[itemIndex] = purchasable && value > 0; // Same as Item.setStock.
+                    break;
+                case PRICE:
+                    prices[itemIndex] = value;
+                    break;
+            }
+        });
+        if (sequence == writtenSequence){
+            return sequence;
+        }
+        Path tempPath = Files.createTempFile(directory, FILE_PREFIX, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)){
+                writeSnapshot(channel);
+                channel.force(true); // On disk before it replaces anything.
+            }
+            Files.move(tempPath, directory.resolve(String.format("%s%020d%s", FILE_PREFIX, sequence, FILE_SUFFIX)), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        writtenSequence = sequence;
+        writtenCount++;
+
+        List<Path> snapshotPaths = listSnapshots();
+        for (int i = 0; i < snapshotPaths.size() - KEPT_SNAPSHOTS; i++){
+            Files.deleteIfExists(snapshotPaths.get(i));
+        }
+        snapshotPaths = listSnapshots();
+        journal.deleteSegmentsBefore(sequenceOf(snapshotPaths.get(0))); // Whatever snapshot gets restored, the journal after it is still there.
+        return sequence;
+    }
+
+    /**
+     * Gets the sequence the state copy is at.
+     * @return the sequence.
+     */
+    public synchronized long getSequence(){
+        return sequence;
+    }
+
+    /**
+     * Gets the amount of snapshots written since starting.
+     * @return the written count.
+     */
+    public synchronized long getWrittenCount(){
+        return writtenCount;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Writes the state copy to a file, a chunk at a time.
+     * @param channel the file.
+     * @throws IOException if the file could not be written.
+     */
+    private void writeSnapshot(FileChannel channel) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+        CRC32 checksum = new CRC32();
+        chunk.putInt(FILE_MAGIC).putInt(FILE_VERSION).putInt(stocks.length).putLong(sequence);
+        for (int i = 0; i < stocks.length; i++){
+            if (chunk.remaining() < ITEM_BYTES){
+                writeChunk(channel, chunk, checksum);
+            }
+            chunk.putInt(items.get(i).toString().hashCode()).putInt(stocks[i]).putInt(prices[i]).putInt(purchasables[i] ? PURCHASABLE : 0);
+        }
+        writeChunk(channel, chunk, checksum);
+        chunk.putInt((int)checksum.getValue());
+        chunk.flip();
+        while (chunk.hasRemaining()){
+            channel.write(chunk);
+        }
+    }
+
+    /**
+     * Writes out a filled chunk and adds it to the checksum.
+     * @param channel the file.
+     * @param chunk the chunk, emptied afterwards.
+     * @param checksum the running checksum.
+     * @throws IOException if the file could not be written.
+     */
+    private static void writeChunk(FileChannel channel, ByteBuffer chunk, CRC32 checksum) throws IOException {
+        checksum.update(chunk.array(), 0, chunk.position());
+        chunk.flip();
+        while (chunk.hasRemaining()){
+            channel.write(chunk);
+        }
+        chunk.clear();
+    }
+
+    /**
+     * Checks a snapshot file and restores the items from it.
+     * @param snapshotPath the snapshot file.
+     * @return the sequence of the snapshot.
+     * @throws IOException if the file could not be read or is damaged.
+     */
+    private long restore(Path snapshotPath) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)){ // The mapping stays valid after the channel is closed.
+            if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE){
+                throw new IOException("Not a snapshot");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int itemCount = buffer.getInt(8);
+        if (buffer.getInt(0) != FILE_MAGIC || buffer.getInt(4) != FILE_VERSION || itemCount < 0
+                || buffer.capacity() != HEADER_BYTES + (long)itemCount * ITEM_BYTES + Integer.BYTES){
+            throw new IOException("Not a snapshot");
+        }
+        int checksumPosition = buffer.capacity() - Integer.BYTES;
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.duplicate().limit(checksumPosition));
+        if ((int)checksum.getValue() != buffer.getInt(checksumPosition)){
+            throw new IOException("Checksum does not match");
+        }
+
+        int skippedCount = 0;
+        for (int i = 0; i < itemCount; i++){
+            int itemPosition = HEADER_BYTES + i * ITEM_BYTES;
+            if (i >= items.size() || items.get(i).toString().hashCode() != buffer.getInt(itemPosition)){
+                skippedCount++;
+                continue;
+            }
+            Item item = items.get(i);
+            item.setStock(buffer.getInt(itemPosition + 4), (buffer.getInt(itemPosition + 12) & PURCHASABLE) != 0);
+            item.setRobuxPrice(buffer.getInt(itemPosition + 8));
+        }
+        if (skippedCount > 0){
+            System.err.printf("SNAPSHOT ERROR: %d ITEMS OF %s NOT RESTORED (not in the catalog)\n", skippedCount, snapshotPath);
+        }
+        return buffer.getLong(12);
+    }
+
+    /**
+     * Lists the snapshot files, oldest first.
+     * @return the snapshot files.
+     * @throws IOException if the directory could not be read.
+     */
+    private List<Path> listSnapshots() throws IOException {
+        ArrayList<Path> snapshotPaths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)){
+            for (Path snapshotPath : stream){
+                snapshotPaths.add(snapshotPath);
+            }
+        }
+        snapshotPaths.sort(null); // The names hold the zero padded sequence, so they sort in order.
+        return snapshotPaths;
+    }
+
+    /**
+     * Gets the sequence of a snapshot from its file name.
+     * @param snapshotPath the snapshot file.
+     * @return the sequence.
+     */
+    private static long sequenceOf(Path snapshotPath){
+        String fileName = snapshotPath.getFileName().toString();
+        return Long.parseLong(fileName.substring(FILE_PREFIX.length(), fileName.length() - FILE_SUFFIX.length()));
+    }
+
+    /**
+     * Constructor for the catalog snapshot.
+     * @param directory the directory of the snapshots, made if it is missing.
+     * @param items the items, in the same order as the purchase journal has them.
+     * @throws IOException if the directory could not be made.
+     */
+    public CatalogSnapshot(Path directory, List<Item> items) throws IOException {
+        this.directory = directory;
+        this.items     = new ArrayList<>(items);
+        Files.createDirectories(directory);
+    }
+}
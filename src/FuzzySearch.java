@@ -1,13 +1,21 @@
 import java.lang.reflect.Array;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 // Using LCS algorithm to fuzzy search.
 // https://en.wikipedia.org/wiki/Longest_common_subsequence_problem
+// The LCS length itself is computed bit-parallel, see BitParallelLCS.
 // The search rating system is based on a old system I've made before for the Roblox Developer Community:
 // https://devforum.roblox.com/t/simple-fuzzy-search/534780
 // I came up with the rating system myself (not algorithm), but if there is a source on the internet with a similar system
 // then I take no credit in the creation of this system. There probably is since this formula is not that difficult.
+// Candidate pruning uses the character counts of a string as an upper bound of the LCS:
+// a common subsequence can not use a character more often than both strings hold it.
 
 /**
  * Object which searches through items based on query.
@@ -17,13 +25,90 @@ public class FuzzySearch {
     //-- CONSTANTS
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     private double          MIN_SEARCH_ACCURACY = 1, ITEM_NAME_BONUS = 0.5;
+    private final int       SHARD_SIZE          = 4096;  // Items per parallel shard, small enough to stay in cache.
+    private final int       PARALLEL_THRESHOLD  = 65536; // Searches with fewer items stay on the calling thread.
+    private final int       CHECK_INTERVAL      = 4096;  // How many items are rated between interrupt checks.
+    private final long      RESULT_CACHE_BUDGET = 4L * 1024 * 1024; // Bytes of ranked results kept for repeated queries.
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     //-- OBJECT VALUES
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     private double          searchAccuracy;
     private double          baseSearchValue;
-    private ArrayList<Item> pageItems; // Store passed objects through here.
+    private SearchIndex     searchIndex; // The normalized names and tags of the passed objects.
     private boolean         shouldIncludeWhiteSpace;
+    private BitParallelLCS  lcsMatcher = new BitParallelLCS(); // Reused for every comparison so rating does not allocate a dp table.
+    private int[]           stringBounds     = new int[0]; // Upper bound of the LCS per string while picking candidates.
+    private int[]           touchedStrings   = new int[0];
+    private int[]           candidateItems   = new int[0];
+    private boolean[]       isCandidateItem  = new boolean[0];
+    private SearchResultHeap resultHeap = new SearchResultHeap(Integer.MAX_VALUE);
+    private int[]           resultItems      = new int[0];
+    private ForkJoinPool    searchPool       = ForkJoinPool.commonPool();
+    private int             parallelThreshold = PARALLEL_THRESHOLD;
+    private SearchResultCache resultCache     = new SearchResultCache(RESULT_CACHE_BUDGET);
+
+    /**
+     * Rates a range of items, splitting it in halves until it is one shard.
+     * Every shard keeps its own best results and the halves are merged by rating and then item order,
+     * so the results do not depend on how the work was scheduled.
+     * Pool workers never see the interrupt of the searching thread, so every shard checks a cancellation flag shared by the search.
+     */
+    private class ShardTask extends RecursiveTask<SearchResultHeap> {
+        private static final long serialVersionUID = 1L; // Never serialized, the task only lives for one search.
+        private String query;
+        private int    limit;
+        private int[]  ratedItems;
+        private int    start, end;
+        private AtomicBoolean isCancelled; // Set once the search is interrupted or a shard failed.
+
+        /**
+         * Rates the range or splits it.
+         * @return the best results of the range.
+         */
+        @Override
+        protected SearchResultHeap compute(){
+            if (end - start <= SHARD_SIZE){
+                BitParallelLCS   shardMatcher = new BitParallelLCS(); // The matcher keeps state so every shard needs its own.
+                SearchResultHeap shardHeap    = new SearchResultHeap(limit);
+                shardMatcher.setPattern(query);
+                shardHeap.reset(limit, end - start);
+                rateItems(shardMatcher, shardHeap, ratedItems, start, end, isCancelled);
+                return shardHeap;
+            }
+            int middle = (start + end) >>> 1;
+            ShardTask firstHalf = new ShardTask(query, limit, ratedItems, start, middle, isCancelled);
+            firstHalf.fork();
+            SearchResultHeap secondHeap;
+            try {
+                secondHeap = new ShardTask(query, limit, ratedItems, middle, end, isCancelled).compute();
+            } catch (RuntimeException | Error e) { // Stop the other half instead of rating it for nothing.
+                isCancelled.set(true);
+                firstHalf.cancel(false);
+                throw e;
+            }
+            SearchResultHeap firstHeap  = firstHalf.join();
+            firstHeap.offerAll(secondHeap);
+            return firstHeap;
+        }
+
+        /**
+         * Constructor for the shard task.
+         * @param query the normalized query.
+         * @param limit the maximum amount of results.
+         * @param ratedItems the item indexes to rate, or null to rate the item indexes of the range itself.
+         * @param start the start of the range (inclusive).
+         * @param end the end of the range (exclusive).
+         * @param isCancelled the cancellation flag of the search.
+         */
+        private ShardTask(String query, int limit, int[] ratedItems, int start, int end, AtomicBoolean isCancelled){
+            this.query       = query;
+            this.limit       = limit;
+            this.ratedItems  = ratedItems;
+            this.start       = start;
+            this.end         = end;
+            this.isCancelled = isCancelled;
+        }
+    }
 
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     //-- PUBLIC METHODS
@@ -34,7 +119,47 @@ public class FuzzySearch {
      * @param newItem the new item.
      */
     public void addItem(Item newItem){
-        pageItems.add(newItem);
+        searchIndex.addItem(newItem); // Normalize it now so searching does not have to.
+        if (resultCache.size() > 0){ // Dropping the results is cheaper than rating the new item against every cached query, imports add thousands.
+            resultCache.clear();
+        }
+    }
+
+    /**
+     * Gets the search index holding the normalized names and tags.
+     * @return the search index.
+     */
+    public SearchIndex getSearchIndex(){
+        return searchIndex;
+    }
+
+    /**
+     * Gets the rating an item needs to show up in the results.
+     * @return the base search value.
+     */
+    public double getBaseSearchValue(){
+        return baseSearchValue;
+    }
+
+    /**
+     * Normalizes a query the same way the search does.
+     * @param query the query.
+     * @return the normalized query.
+     */
+    public String normalizeQuery(String query){
+        if(!shouldIncludeWhiteSpace){ // If we have to strip the whitespace
+            query = SearchIndex.normalize(query, false); // Strip the whitespace and make it lowercase.
+        }
+        return query;
+    }
+
+    /**
+     * Creates a search session which reuses the work of the previous query while the user types.
+     * @param limit the maximum amount of results per query.
+     * @return the search session.
+     */
+    public SearchSession createSearchSession(int limit){
+        return new SearchSession(this, limit);
     }
 
     /**
@@ -43,62 +168,75 @@ public class FuzzySearch {
      * @return An array list of item objects.
      */
     public ArrayList<Item> getSearchResults(String query){
-        int queryLength = query.length();
-        // Account for changing accuracy as character increases;
-        HashMap<Item, Double> ratingMap = new HashMap<>(); // Put the results in a hashmap for easier sorting of ratings later.
-        ArrayList<Item> searchResults   = new ArrayList<>(); // Store the best results in here.
-        if(!shouldIncludeWhiteSpace){ // If we have to strip the whitespace
-            query = query.replaceAll("\\s+", "").toLowerCase(); //Use the regex pattern to replace all the whitespace.
-        }
-        for(Item item: pageItems){
-            double bestRating = -10000; // Keep the rating as a very low number for comparisons.
-            double rating = getSearchRating(query, item.toString(), false); // Get the rating for the name of the item.
-            bestRating = Math.max(bestRating, rating); // Update the best rating.
-            String[] itemTags = item.getItemTags(); // Get the item's tags.
-            for (String itemTag : itemTags) { // Iterate through the tags.
-                rating     = getSearchRating(query, itemTag, true); // Get the score for the tag.
-                bestRating = Math.max(bestRating, rating); // Check if this is the highest rating.
-            }
-            if (bestRating >= baseSearchValue) { // If the best rating for the item is over the base search value
-                ratingMap.put(item, bestRating); // Put it into the best objects map.
-            }
+        return getSearchResults(query, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets an array list with the best results in order based on query, up to a limit.
+     * Only the best results are kept while rating, so the matches beyond the limit are never sorted.
+     * Repeated queries are answered from the result cache until an item is added.
+     * @param query the string that should be queried.
+     * @param limit the maximum amount of results.
+     * @return An array list of item objects.
+     * @throws CancellationException if the thread was interrupted during the search.
+     */
+    public ArrayList<Item> getSearchResults(String query, int limit){
+        query = normalizeQuery(query);
+        int[] cachedItems = resultCache.get(query, limit);
+        if(cachedItems != null){ // Searched for this before and no item was added since.
+            return getItems(cachedItems, Math.min(limit, cachedItems.length));
+        }
+        int[] ratedItems = null; // Null rates every item in the index.
+        int   itemCount  = searchIndex.getItemCount();
+        if(searchIndex.isIndexingCharacters()){ // Only rate the items which can still reach the base search value.
+            itemCount  = findCandidates(query);
+            ratedItems = candidateItems;
         }
-        // Sort the map
-        ratingMap.entrySet().stream() // Make it into a sequence of objects.
-                .sorted((key1, key2) -> -key1.getValue().compareTo(key2.getValue())) // Compared the two values from the key.
-                .forEach(key -> searchResults.add(key.getKey())); // Copy each of the keys over now.
+        if(searchPool != null && itemCount >= parallelThreshold){ // Large catalogs are rated in shards on the pool.
+            return getHeapResults(query, limit, getShardResults(new ShardTask(query, limit, ratedItems, 0, itemCount, new AtomicBoolean())));
+        }
+        lcsMatcher.setPattern(query); // Build the match masks once for every string we compare against.
+        resultHeap.reset(limit, itemCount);
+        rateItems(lcsMatcher, resultHeap, ratedItems, 0, itemCount, null);
+        return getHeapResults(query, limit, resultHeap);
+    }
 
+    /**
+     * Sets how much memory the ranked results of recent queries may use.
+     * @param budgetBytes the budget in bytes, 0 turns the result cache off.
+     */
+    public void setResultCacheBudget(long budgetBytes){
+        resultCache.setBudget(budgetBytes);
+    }
 
-        return searchResults;
+    /**
+     * Gets the cache holding the ranked results of recent queries, for its hit and miss counters.
+     * @return the result cache.
+     */
+    public SearchResultCache getResultCache(){
+        return resultCache;
+    }
+
+    /**
+     * Sets how large searches are spread over a fork join pool.
+     * @param searchPool the pool to rate the shards on, or null to always search on the calling thread.
+     * @param parallelThreshold the amount of items a search needs before it goes parallel.
+     */
+    public void setParallelism(ForkJoinPool searchPool, int parallelThreshold){
+        this.searchPool        = searchPool;
+        this.parallelThreshold = Math.max(1, parallelThreshold);
     }
 
     /**
-     * Calculates the fuzzy search rating based on the query string and a comparison string.
-     * @param query the string of the query.
-     * @param comparedString the string that the query will be compared to.
+     * Calculates the fuzzy search rating from the longest common subsequence of the query and a comparison string.
+     * @param commonLength the longest common subsequence length.
+     * @param queryLength the length of the query.
      * @param isTag if the compared to string is a tag or not.
      * @return a double which represents the query's rating.
      */
-    private double getSearchRating(String query, String comparedString, boolean isTag){
-        int[][] dp = new int[query.length()+1][comparedString.length()+1]; // Set the the dp table.
-        double score;
-        if (!shouldIncludeWhiteSpace){
-            comparedString = comparedString.replaceAll("\\s+", ""); // Strip the whitespace using regex pattern.
-        }
-        comparedString = comparedString.toLowerCase(); // Keep all the strings lowercase for accurate matching.
-        for(int i = 0; i <= query.length(); i++){
-            for(int j = 0; j <= comparedString.length(); j++){
-                if(i == 0 || j == 0){ // if the index is 0 we should set this cell as 0.
-                    dp[i][j] = 0;
-                }else if(query.charAt(i-1) == comparedString.charAt(j-1)){ // If the current character is equal to the query's character.
-                    dp[i][j] = dp[i-1][j-1] + 1; // Get the previous cell's solution and increase it by one since there is a match.
-                }else{ // If query's character does not match with the comparison's string's character.
-                    dp[i][j] = Math.max(dp[i][j-1], dp[i-1][j]); // Get the best solution from the previous cell and this solution.
-                }
-            }
-        }
-        score = dp[query.length()][comparedString.length()]; // Get the longest common subsequence.
-        if(score > ((double)query.length()/searchAccuracy)){ // Compare the score using this formula.
+    public double getSearchRating(int commonLength, int queryLength, boolean isTag){
+        double score = commonLength;
+        if(score > ((double)queryLength/searchAccuracy)){ // Compare the score using this formula.
             if(!isTag){ // If we are comparing an object's name.
                 score += ITEM_NAME_BONUS; // We should increase it's score since the user wants the object's name rather than a tag.
             }
@@ -108,7 +246,189 @@ public class FuzzySearch {
         return score;
     }
 
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Rates a range of items and offers the matches to a heap.
+     * @param matcher the lcs matcher holding the query.
+     * @param heap the heap receiving the matches.
+     * @param ratedItems the item indexes to rate, or null to rate the item indexes of the range itself.
+     * @param start the start of the range (inclusive).
+     * @param end the end of the range (exclusive).
+     * @param isCancelled the cancellation flag shared by the shards of the search, or null when the search runs on the calling thread only.
+     */
+    private void rateItems(BitParallelLCS matcher, SearchResultHeap heap, int[] ratedItems, int start, int end, AtomicBoolean isCancelled){
+        int queryLength = matcher.getPatternLength();
+        for(int i = start; i < end; i++){
+            if ((i - start) % CHECK_INTERVAL == 0 && (Thread.currentThread().isInterrupted() || (isCancelled != null && isCancelled.get()))){ // A newer search does not need this one anymore.
+                if (isCancelled != null){
+                    isCancelled.set(true); // The shards on the pool stop at their next check.
+                }
+                throw new CancellationException("Search interrupted");
+            }
+            int itemIndex     = ratedItems == null ? i : ratedItems[i];
+            double bestRating = getItemRating(matcher, itemIndex, queryLength);
+            if (bestRating >= baseSearchValue) { // If the best rating for the item is over the base search value
+                heap.offer(bestRating, itemIndex); // Keep it if it is one of the best.
+            }
+        }
+    }
+
+    /**
+     * Runs the shards of a search on the search pool and waits for them.
+     * An interrupt while waiting cancels every shard which has not finished yet.
+     * @param rootTask the shard task covering every rated item.
+     * @return the best results of every shard.
+     * @throws CancellationException if the thread was interrupted during the search.
+     */
+    private SearchResultHeap getShardResults(ShardTask rootTask){
+        searchPool.execute(rootTask);
+        try {
+            return rootTask.get();
+        } catch (InterruptedException e) {
+            rootTask.isCancelled.set(true);
+            rootTask.cancel(false);
+            Thread.currentThread().interrupt(); // Keep the interrupt like a cancelled search on the calling thread does.
+            throw new CancellationException("Search interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException){ // Includes the cancellation of a shard.
+                throw (RuntimeException)e.getCause();
+            }
+            if (e.getCause() instanceof Error){
+                throw (Error)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Takes the results out of a result heap and caches them for the query.
+     * @param query the normalized query.
+     * @param limit the maximum amount of results the heap kept.
+     * @param heap the heap.
+     * @return An array list of item objects, best first.
+     */
+    private ArrayList<Item> getHeapResults(String query, int limit, SearchResultHeap heap){
+        if (resultItems.length < heap.size()){
+            resultItems = new int[heap.size()];
+        }
+        int resultCount = heap.drainInOrder(resultItems);
+        if (resultCache.getBudget() > 0){
+            resultCache.put(query, limit, Arrays.copyOf(resultItems, resultCount));
+        }
+        return getItems(resultItems, resultCount);
+    }
+
+    /**
+     * Looks up the items of ranked item indexes.
+     * @param itemIndexes the item indexes, best first.
+     * @param count the amount of item indexes to look up.
+     * @return An array list of item objects, best first.
+     */
+    private ArrayList<Item> getItems(int[] itemIndexes, int count){
+        ArrayList<Item> searchResults = new ArrayList<>(count); // Store the best results in here.
+        for(int i = 0; i < count; i++){
+            searchResults.add(searchIndex.getItem(itemIndexes[i]));
+        }
+        return searchResults;
+    }
+
+    /**
+     * Gets the best rating of an item over its name and tags against the query set on an lcs matcher.
+     * @param matcher the lcs matcher holding the query.
+     * @param itemIndex the index of the item.
+     * @param queryLength the length of the query.
+     * @return the best rating.
+     */
+    private double getItemRating(BitParallelLCS matcher, int itemIndex, int queryLength){
+        double bestRating = -10000; // Keep the rating as a very low number for comparisons.
+        char[] indexChars = searchIndex.getChars();
+        int stringEnd     = searchIndex.getItemStringEnd(itemIndex);
+        for(int stringIndex = searchIndex.getItemStringStart(itemIndex); stringIndex < stringEnd; stringIndex++){ // Iterate through the name and the tags.
+            int commonLength = matcher.getLength(indexChars, searchIndex.getStringStart(stringIndex), searchIndex.getStringEnd(stringIndex));
+            double rating    = getSearchRating(commonLength, queryLength, searchIndex.isTag(stringIndex)); // Get the score for the string.
+            bestRating       = Math.max(bestRating, rating); // Check if this is the highest rating.
+        }
+        return bestRating;
+    }
+
+    /**
+     * Picks the items which may reach the base search value using the character postings of the index.
+     * The rating only grows with the LCS, so an item whose bound can not reach the base search value can not match.
+     * @param query the normalized query.
+     * @return the amount of candidates, which are stored in order at the start of candidateItems.
+     */
+    private int findCandidates(String query){
+        int queryLength = query.length();
+        if (stringBounds.length < searchIndex.getStringCount()){ // Grow the work arrays with the index.
+            stringBounds   = new int[searchIndex.getStringCount()];
+            touchedStrings = new int[searchIndex.getStringCount()];
+        }
+        if (candidateItems.length < searchIndex.getItemCount()){
+            candidateItems  = new int[searchIndex.getItemCount()];
+            isCandidateItem = new boolean[searchIndex.getItemCount()];
+        }
+        int touchedCount = 0;
+        for(int i = 0; i < queryLength; i++){
+            char queryChar = query.charAt(i);
+            if (query.lastIndexOf(queryChar, i - 1) >= 0){ // Each character is counted once.
+                continue;
+            }
+            int queryCount = 1;
+            for(int j = i + 1; j < queryLength; j++){
+                if (query.charAt(j) == queryChar){
+                    queryCount++;
+                }
+            }
+            SearchIndex.Postings postings = searchIndex.getPostings(queryChar);
+            if (postings == null){ // No string holds this character.
+                continue;
+            }
+            for(int position = 0; position < postings.size(); position++){
+                int stringIndex = postings.getString(position);
+                if (stringBounds[stringIndex] == 0){ // First character this string shares with the query.
+                    touchedStrings[touchedCount++] = stringIndex;
+                }
+                stringBounds[stringIndex] += Math.min(queryCount, postings.getCount(position));
+            }
+        }
+        int candidateCount = 0;
+        for(int i = 0; i < touchedCount; i++){
+            int stringIndex = touchedStrings[i];
+            int bound       = stringBounds[stringIndex];
+            stringBounds[stringIndex] = 0; // Clear it for the next search.
+            int itemIndex   = searchIndex.getStringItem(stringIndex);
+            if (!isCandidateItem[itemIndex] && getSearchRating(bound, queryLength, searchIndex.isTag(stringIndex)) >= baseSearchValue){
+                isCandidateItem[itemIndex]       = true;
+                candidateItems[candidateCount++] = itemIndex;
+            }
+        }
+        for(int i = 0; i < candidateCount; i++){
+            isCandidateItem[candidateItems[i]] = false;
+        }
+        Arrays.sort(candidateItems, 0, candidateCount); // Rate them in item order like a full scan does.
+        return candidateCount;
+    }
+
+    /**
+     * Constructor for the fuzzy search object.
+     * @param shouldIncludeWhiteSpace false if whitespace should be stripped before comparing.
+     * @param accuracy the search accuracy, can not be lower than 1.
+     * @param fullItemList the items to search through.
+     */
     public FuzzySearch(boolean shouldIncludeWhiteSpace, double accuracy, ArrayList<Item> fullItemList){
+        this(shouldIncludeWhiteSpace, accuracy, fullItemList, false);
+    }
+
+    /**
+     * Constructor for the fuzzy search object.
+     * @param shouldIncludeWhiteSpace false if whitespace should be stripped before comparing.
+     * @param accuracy the search accuracy, can not be lower than 1.
+     * @param fullItemList the items to search through.
+     * @param shouldPruneCandidates true if a character index should be kept to skip items that can not match.
+     */
+    public FuzzySearch(boolean shouldIncludeWhiteSpace, double accuracy, ArrayList<Item> fullItemList, boolean shouldPruneCandidates){
         if (accuracy < 1){ // Accuracy can not be lower than 1 or else the algorithm breaks.
             baseSearchValue = MIN_SEARCH_ACCURACY;
             searchAccuracy  = MIN_SEARCH_ACCURACY;
@@ -116,7 +436,10 @@ public class FuzzySearch {
             searchAccuracy  = accuracy;
             baseSearchValue = accuracy;
         }
-        this.pageItems               = new ArrayList<Item>(fullItemList); // Shallow copy the passed item list.
         this.shouldIncludeWhiteSpace = shouldIncludeWhiteSpace;
+        this.searchIndex             = new SearchIndex(shouldIncludeWhiteSpace, shouldPruneCandidates);
+        for(Item item: fullItemList){ // Index the passed item list.
+            searchIndex.addItem(item);
+        }
     }
 }
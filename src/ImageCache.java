@@ -0,0 +1,464 @@
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the decoded and scaled pictures of the whole application within a memory budget.
+ * Every resource is decoded and scaled once per size, and the least recently used picture is evicted first once the budget is used up.
+ * Pictures can also be loaded on a small pool of worker threads, newest request first, so the event dispatch thread never waits on a decode.
+ * A picture that failed to load is not loaded again, so items without a picture keep their placeholder without another decode.
+ * With a thumbnail cache the scaled pictures are also kept on disk, so later runs skip the decoding and scaling.
+ * With a thumbnail atlas the pictures of the atlas cell size are packed into its shared sheets instead, outside of the memory budget.
+ * Can be used from any thread.
+ */
+public class ImageCache {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final long BYTES_PER_PIXEL     = 4;
+    private static final long DEFAULT_BUDGET      = 64L * 1024 * 1024; // Bytes of scaled pictures kept in memory.
+    private static final int  LOADER_THREADS      = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final ImageCache SHARED_CACHE  = new ImageCache(DEFAULT_BUDGET, new ThumbnailCache(ThumbnailCache.getDefaultDirectory()));
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // Access order, so the eldest is the least recently used.
+    private long budgetBytes, usedBytes;
+    private long hitCount, missCount, evictionCount;
+    private HashMap<String, ArrayList<Consumer<Icon>>> pendingLoads = new HashMap<>(); // The callbacks of the pictures being loaded.
+    private HashSet<String> failedLoads = new HashSet<>(); // The keys of the pictures that could not be loaded, a few bytes each.
+    private ExecutorService loadExecutor; // Created on the first load.
+    private ThumbnailCache  thumbnailCache; // Null if the scaled pictures are not kept on disk.
+    private ThumbnailAtlas  atlas;          // Null if every picture is its own image.
+
+    /**
+     * A scaled picture and its size in memory.
+     */
+    private static class Entry {
+        private ImageIcon icon;
+        private long      bytes;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Gets the cache shared by every picture.
+     * @return the shared image cache.
+     */
+    public static ImageCache getShared(){
+        return SHARED_CACHE;
+    }
+
+    /**
+     * Gets a resource picture scaled to a size, decoding and scaling it only if it is not cached.
+     * The icon is shared, so it must not be changed.
+     * @param resourcePath the path of the resource, for example /resources/sitepictures/currency.png.
+     * @param width the width to scale to.
+     * @param height the height to scale to.
+     * @return the scaled picture.
+     */
+    public Icon getIcon(String resourcePath, int width, int height){
+        String key = getKey(resourcePath, width, height);
+        synchronized (this){
+            Icon icon = findIcon(key, resourcePath, width, height);
+            if (icon != null){
+                hitCount++;
+                return icon;
+            }
+            missCount++;
+        }
+        return storeImage(key, resourcePath, width, height, loadImage(resourcePath, width, height)); // Decode outside of the lock so other pictures are not held up.
+    }
+
+    /**
+     * Gets a resource picture scaled to a size if it is already cached.
+     * @param resourcePath the path of the resource.
+     * @param width the scaled width.
+     * @param height the scaled height.
+     * @return the scaled picture, or null if it still has to be loaded.
+     */
+    public synchronized Icon getCachedIcon(String resourcePath, int width, int height){
+        Icon icon = findIcon(getKey(resourcePath, width, height), resourcePath, width, height);
+        if (icon != null){
+            hitCount++;
+        }
+        return icon;
+    }
+
+    /**
+     * Loads a resource picture scaled to a size on a worker thread.
+     * Requests for a picture that is already being loaded share that load.
+     * Requests for a picture that could not be loaded before are dropped, the caller keeps its placeholder.
+     * @param resourcePath the path of the resource.
+     * @param width the width to scale to.
+     * @param height the height to scale to.
+     * @param onLoaded called on the event dispatch thread with the scaled picture.
+     */
+    public void loadIconLater(String resourcePath, int width, int height, Consumer<Icon> onLoaded){
+        String key = getKey(resourcePath, width, height);
+        synchronized (this){
+            Icon icon = findIcon(key, resourcePath, width, height);
+            if (icon != null){ // Loaded since the caller checked.
+                hitCount++;
+                SwingUtilities.invokeLater(() -> onLoaded.accept(icon));
+                return;
+            }
+            if (failedLoads.contains(key)){ // Would only fail again.
+                return;
+            }
+            ArrayList<Consumer<Icon>> callbacks = pendingLoads.get(key);
+            if (callbacks != null){ // Already on its way.
+                callbacks.add(onLoaded);
+                return;
+            }
+            callbacks = new ArrayList<>();
+            callbacks.add(onLoaded);
+            pendingLoads.put(key, callbacks);
+            missCount++;
+            if (loadExecutor == null){
+                loadExecutor = createLoadExecutor();
+            }
+        }
+        loadExecutor.execute(() -> finishLoad(key, resourcePath, width, height));
+    }
+
+    /**
+     * Loads resource pictures scaled to a size on the worker threads, so they are cached before they are shown.
+     * @param resourcePaths the paths of the resources.
+     * @param width the width to scale to.
+     * @param height the height to scale to.
+     */
+    public void preloadIcons(Collection<String> resourcePaths, int width, int height){
+        for (String resourcePath : resourcePaths){
+            loadIconLater(resourcePath, width, height, icon -> {});
+        }
+    }
+
+    /**
+     * Packs the pictures of the atlas cell size into a thumbnail atlas from now on.
+     * Pictures that were cached before stay where they are.
+     * @param atlas the atlas, or null to keep every picture as its own image.
+     */
+    public synchronized void setAtlas(ThumbnailAtlas atlas){
+        this.atlas = atlas;
+    }
+
+    /**
+     * Gets the thumbnail atlas.
+     * @return the atlas, or null if there is none.
+     */
+    public synchronized ThumbnailAtlas getAtlas(){
+        return atlas;
+    }
+
+    /**
+     * Gets the thumbnail cache that keeps the scaled pictures on disk.
+     * @return the thumbnail cache, or null if there is none.
+     */
+    public ThumbnailCache getThumbnailCache(){
+        return thumbnailCache;
+    }
+
+    /**
+     * Removes every cached picture.
+     */
+    public synchronized void clear(){
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * Sets the memory budget, evicting pictures until they fit.
+     * @param budgetBytes the budget in bytes, 0 turns the cache off.
+     */
+    public synchronized void setBudget(long budgetBytes){
+        this.budgetBytes = Math.max(0, budgetBytes);
+        evictToBudget();
+    }
+
+    /**
+     * Gets the memory budget.
+     * @return the budget in bytes.
+     */
+    public synchronized long getBudget(){
+        return budgetBytes;
+    }
+
+    /**
+     * Gets the estimated memory used by the cached pictures.
+     * @return the used bytes.
+     */
+    public synchronized long getUsedBytes(){
+        return usedBytes;
+    }
+
+    /**
+     * Gets the amount of cached pictures.
+     * @return the picture count.
+     */
+    public synchronized int size(){
+        return entries.size();
+    }
+
+    /**
+     * Gets how many pictures were answered from the cache.
+     * @return the hit count.
+     */
+    public synchronized long getHitCount(){
+        return hitCount;
+    }
+
+    /**
+     * Gets how many pictures had to be decoded.
+     * @return the miss count.
+     */
+    public synchronized long getMissCount(){
+        return missCount;
+    }
+
+    /**
+     * Gets how many pictures were evicted to stay within the budget.
+     * @return the eviction count.
+     */
+    public synchronized long getEvictionCount(){
+        return evictionCount;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Gets the cache key of a resource at a size.
+     * @param resourcePath the path of the resource.
+     * @param width the scaled width.
+     * @param height the scaled height.
+     * @return the key.
+     */
+    private static String getKey(String resourcePath, int width, int height){
+        return resourcePath + '@' + width + 'x' + height;
+    }
+
+    /**
+     * Finds a cached picture, in the atlas first.
+     * Must be called holding the lock.
+     * @param key the cache key.
+     * @param resourcePath the path of the resource.
+     * @param width the scaled width.
+     * @param height the scaled height.
+     * @return the picture, or null if it is not cached.
+     */
+    private Icon findIcon(String key, String resourcePath, int width, int height){
+        if (atlas != null && atlas.isCellSize(width, height)){
+            Icon icon = atlas.getIcon(resourcePath);
+            if (icon != null){
+                return icon;
+            }
+        }
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.icon;
+    }
+
+    /**
+     * Caches a loaded picture, packing it into the atlas if it is of the cell size and the atlas still has room.
+     * @param key the cache key.
+     * @param resourcePath the path of the resource.
+     * @param width the scaled width.
+     * @param height the scaled height.
+     * @param image the loaded picture.
+     * @return the picture that is shared from now on.
+     */
+    private Icon storeImage(String key, String resourcePath, int width, int height, BufferedImage image){
+        ThumbnailAtlas currentAtlas = getAtlas();
+        if (currentAtlas != null && currentAtlas.isCellSize(width, height)){
+            Icon icon = currentAtlas.addIcon(resourcePath, image);
+            if (icon != null){
+                return icon;
+            }
+        }
+        return putIcon(key, new ImageIcon(image));
+    }
+
+    /**
+     * Caches a loaded picture unless another thread cached it first.
+     * @param key the cache key.
+     * @param icon the loaded picture.
+     * @return the picture that is shared from now on.
+     */
+    private synchronized ImageIcon putIcon(String key, ImageIcon icon){
+        Entry entry = entries.get(key);
+        if (entry != null){ // Another thread loaded it first, keep the one already shared.
+            return entry.icon;
+        }
+        entry       = new Entry();
+        entry.icon  = icon;
+        entry.bytes = BYTES_PER_PIXEL * Math.max(1, icon.getIconWidth()) * Math.max(1, icon.getIconHeight());
+        if (entry.bytes <= budgetBytes){ // Larger pictures would push everything else out.
+            entries.put(key, entry);
+            usedBytes += entry.bytes;
+            evictToBudget();
+        }
+        return icon;
+    }
+
+    /**
+     * Loads a picture on a worker thread and hands it to everyone waiting for it on the event dispatch thread.
+     * @param key the cache key.
+     * @param resourcePath the path of the resource.
+     * @param width the width to scale to.
+     * @param height the height to scale to.
+     */
+    private void finishLoad(String key, String resourcePath, int width, int height){
+        Icon icon = null;
+        try {
+            icon = storeImage(key, resourcePath, width, height, loadImage(resourcePath, width, height));
+        } catch (RuntimeException e) {
+            System.err.printf("PICTURE ERROR: %s COULD NOT BE LOADED (%s)\n", resourcePath, e); // The pictures keep their placeholder.
+        }
+        ArrayList<Consumer<Icon>> callbacks;
+        synchronized (this){
+            callbacks = pendingLoads.remove(key);
+            if (icon == null){ // Remember it, so the next bind does not queue the same failing load.
+                failedLoads.add(key);
+            }
+        }
+        if (icon != null){
+            Icon loadedIcon = icon;
+            SwingUtilities.invokeLater(() -> {
+                for (Consumer<Icon> callback : callbacks){
+                    callback.accept(loadedIcon);
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates the worker threads for loading pictures.
+     * The queue hands out the newest request first, so the pictures that just scrolled into view load before the ones that already left.
+     * @return the executor.
+     */
+    private static ExecutorService createLoadExecutor(){
+        LinkedBlockingDeque<Runnable> newestFirst = new LinkedBlockingDeque<Runnable>() {
+            @Override
+            public boolean offer(Runnable task){
+                return offerFirst(task);
+            }
+        };
+        return new ThreadPoolExecutor(LOADER_THREADS, LOADER_THREADS, 0, TimeUnit.MILLISECONDS, newestFirst, runnable -> {
+            Thread loaderThread = new Thread(runnable, "picture loader");
+            loaderThread.setDaemon(true); // Do not keep the application alive.
+            return loaderThread;
+        });
+    }
+
+    /**
+     * Loads a resource scaled to a size, from the thumbnail cache if there is one.
+     * @param resourcePath the path of the resource.
+     * @param width the width to scale to.
+     * @param height the height to scale to.
+     * @return the scaled picture.
+     */
+    private BufferedImage loadImage(String resourcePath, int width, int height){
+        if (thumbnailCache != null){
+            return thumbnailCache.getThumbnail(resourcePath, width, height);
+        }
+        return decodeImage(resourcePath, width, height);
+    }
+
+    /**
+     * Decodes a resource and scales it.
+     * @param resourcePath the path of the resource.
+     * @param width the width to scale to.
+     * @param height the height to scale to.
+     * @return the scaled picture.
+     */
+    private static BufferedImage decodeImage(String resourcePath, int width, int height){
+        URL resource = ImageCache.class.getResource(resourcePath);
+        if (resource == null){
+            throw new IllegalArgumentException("Missing picture " + resourcePath);
+        }
+        try {
+            BufferedImage decoded = ImageIO.read(resource);
+            if (decoded == null){ // No reader for the format.
+                throw new IllegalArgumentException("Unreadable picture " + resourcePath);
+            }
+            return scaleImage(decoded, width, height);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Scales a picture with Graphics2D.
+     * Large reductions are done in halving steps with bilinear filtering, which stays smooth without an area average over every pixel.
+     * @param image the decoded picture.
+     * @param width the width to scale to.
+     * @param height the height to scale to.
+     * @return the scaled picture.
+     */
+    static BufferedImage scaleImage(BufferedImage image, int width, int height){
+        width  = Math.max(1, width);
+        height = Math.max(1, height);
+        BufferedImage scaled = image;
+        int currentWidth  = image.getWidth();
+        int currentHeight = image.getHeight();
+        do {
+            currentWidth  = currentWidth  / 2 >= width  ? currentWidth  / 2 : width;  // Halve until the next halving would undershoot.
+            currentHeight = currentHeight / 2 >= height ? currentHeight / 2 : height;
+            BufferedImage step = new BufferedImage(currentWidth, currentHeight, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = step.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(scaled, 0, 0, currentWidth, currentHeight, null);
+            graphics.dispose();
+            scaled = step;
+        } while (currentWidth != width || currentHeight != height);
+        return scaled;
+    }
+
+    /**
+     * Evicts the least recently used pictures until the rest fits in the budget.
+     */
+    private void evictToBudget(){
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (usedBytes > budgetBytes && iterator.hasNext()){
+            usedBytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Constructor for the image cache.
+     * @param budgetBytes the memory budget in bytes, 0 turns the cache off.
+     */
+    public ImageCache(long budgetBytes){
+        this(budgetBytes, null);
+    }
+
+    /**
+     * Constructor for the image cache.
+     * @param budgetBytes the memory budget in bytes, 0 turns the cache off.
+     * @param thumbnailCache the thumbnail cache to keep the scaled pictures on disk, or null to scale them on every run.
+     */
+    public ImageCache(long budgetBytes, ThumbnailCache thumbnailCache){
+        this.budgetBytes    = Math.max(0, budgetBytes);
+        this.thumbnailCache = thumbnailCache;
+    }
+}
@@ -1,11 +1,20 @@
 import javax.swing.*;
 import javax.swing.text.html.HTML;
 import java.awt.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents an item.
+ * The stock and whether the item can be bought live together in one atomic word, so buyers on any thread can never oversell it.
+ * Every change that moves the stock into another level is published once to the shared StockEventBus, by the thread that made it, and so is every price change.
  */
 public class Item {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS.
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final long STOCK_MASK       = 0xFFFFFFFFL; // The low half of the state is the stock.
+    private static final long PURCHASABLE_FLAG = 1L << 32;    // The bit above it is set while the item can be bought.
+    private static final int  SOLD_OUT_LEVEL   = 0, LOW_STOCK_LEVEL = 1, IN_STOCK_LEVEL = 2; // Stock levels, ordered from worst to best.
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     //-- OBJECT VALUES.
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
@@ -13,10 +22,86 @@ public class Item {
     private String[] tags;
     private String[] sizes;
     private int lowStockThreshold;
-    private int robuxPrice;
-    private int stock;
+    private volatile int robuxPrice; // Can be changed from any thread.
+    private AtomicLong state = new AtomicLong(); // The stock and the purchasable flag, changed together.
     private boolean shouldWarnLowStock = false;
-    private boolean purchasable      = false;
+
+    /**
+     * The outcome of trying to buy an item.
+     */
+    public enum PurchaseResult {
+        REJECTED,  // Not enough stock, or the item can not be bought, nothing changed.
+        PURCHASED, // Bought, the stock went down.
+        LOW_STOCK, // Bought, and the stock just went at or under the low stock threshold.
+        SOLD_OUT;  // Bought the last of the stock, the item can not be bought anymore.
+
+        /**
+         * If the purchase went through.
+         * @return true if the stock was taken, false otherwise.
+         */
+        public boolean isSuccessful(){
+            return this != REJECTED;
+        }
+    }
+
+    /**
+     * A change of the stock into another level, or of the price shown next to it.
+     */
+    public enum StockEvent {
+        LOW_STOCK,    // The stock went from plenty to at or under the low stock threshold, only for items that warn of low stock.
+        SOLD_OUT,     // The item can not be bought anymore.
+        RESTOCKED,    // The stock went back up from sold out, or from low stock to above the threshold.
+        PRICE_CHANGED // The price is different.
+    }
+
+    /**
+     * Atomically buys some of the stock if there is enough of it.
+     * @param quantity the amount to buy, at least 1.
+     * @return what the purchase did, only the buyer that crosses the low stock threshold or takes the last of the stock is told so.
+     */
+    public PurchaseResult tryPurchase(int quantity){
+        if (quantity < 1){
+            throw new IllegalArgumentException("Can not buy " + quantity + " of " + itemName);
+        }
+        while (true){
+            long current = state.get();
+            int stock    = stockOf(current);
+            if ((current & PURCHASABLE_FLAG) == 0 || stock < quantity){
+                return PurchaseResult.REJECTED;
+            }
+            int newStock = stock - quantity;
+            long updated = newStock > 0 ? pack(newStock, true) : pack(0, false);
+            if (state.compareAndSet(current, updated)){
+                StockEvent event = publishTransition(current, updated);
+                if (event == StockEvent.SOLD_OUT){
+                    return PurchaseResult.SOLD_OUT;
+                }
+                return event == StockEvent.LOW_STOCK ? PurchaseResult.LOW_STOCK : PurchaseResult.PURCHASED;
+            }
+            // Another buyer changed the state first, try again with theirs.
+        }
+    }
+
+    /**
+     * Atomically gives back stock that was bought but could not be kept, for example when the purchase was not saved.
+     * An item that sold out can be bought again, one that was taken off sale with stock left stays off sale.
+     * @param quantity the amount to give back, at least 1.
+     */
+    public void returnStock(int quantity){
+        if (quantity < 1){
+            throw new IllegalArgumentException("Can not return " + quantity + " of " + itemName);
+        }
+        while (true){
+            long current = state.get();
+            int stock    = stockOf(current);
+            long updated = pack(stock + quantity, (current & PURCHASABLE_FLAG) != 0 || stock <= 0);
+            if (state.compareAndSet(current, updated)){
+                publishTransition(current, updated);
+                return;
+            }
+            // A buyer changed the state first, try again with theirs.
+        }
+    }
 
 
     /**
@@ -28,13 +113,33 @@ public class Item {
     }
 
     /**
-     * Sets the stock of an item
+     * Sets the stock of an item, it can be bought while there is some.
+     * A journaled item has to be restocked through PurchaseJournal.setStock, or the change is lost on a restart.
      * @param stock the value that the stock will be set at.
      */
     public void setStock(int stock){
-        this.stock       = stock;
-        if(this.stock <= 0){ // If the stock is gone.
-            purchasable = false; // You can't purchase it anymore.
+        setStock(stock, true);
+    }
+
+    /**
+     * Sets the stock of an item and if it can be bought together, for example when restoring a snapshot.
+     * @param stock the value that the stock will be set at.
+     * @param purchasable if the item can be bought, it never can without stock.
+     */
+    public void setStock(int stock, boolean purchasable){
+        long updated = pack(stock, purchasable && stock > 0); // If the stock is gone you can't purchase it anymore.
+        publishTransition(state.getAndSet(updated), updated);
+    }
+
+    /**
+     * Sets the price of an item in Robux.
+     * A journaled item has to change its price through PurchaseJournal.setRobuxPrice, or the change is lost on a restart.
+     * @param robuxPrice the new price.
+     */
+    public void setRobuxPrice(int robuxPrice){
+        if (this.robuxPrice != robuxPrice){
+            this.robuxPrice = robuxPrice;
+            StockEventBus.getShared().publish(this, StockEvent.PRICE_CHANGED);
         }
     }
 
@@ -43,7 +148,7 @@ public class Item {
      * @return true if it is, false otherwise.
      */
     public boolean isPurchasable(){
-        return purchasable;
+        return (state.get() & PURCHASABLE_FLAG) != 0;
     }
 
     /**
@@ -76,7 +181,7 @@ public class Item {
      */
 
     public int getStock(){
-        return stock;
+        return stockOf(state.get());
     }
 
     /**
@@ -120,10 +225,67 @@ public class Item {
         this.description         = description;
         this.author              = author;
         this.robuxPrice          = robuxPrice;
-        this.stock               = stock;
+        this.state.set(pack(stock, stock > 0)); // Sets the stock, it can only be bought while there is some.
         this.tags                = tags.clone(); // Clone the tags.
         this.shouldWarnLowStock  = shouldWarnLowStock;
-        this.purchasable         = stock > 0; // Sets the stock.
         this.lowStockThreshold   = lowStockThreshold;
     }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS.
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Publishes the event of a state change if it moved the stock into another level.
+     * Only the thread whose change it was gets here with those two states, so every transition is published once.
+     * @param previous the state before.
+     * @param updated the state after.
+     * @return the published event, or null if the level stayed the same.
+     */
+    private StockEvent publishTransition(long previous, long updated){
+        int previousLevel = levelOf(previous), level = levelOf(updated);
+        if (level == previousLevel){
+            return null;
+        }
+        StockEvent event;
+        if (level == SOLD_OUT_LEVEL){
+            event = StockEvent.SOLD_OUT;
+        }else if (level < previousLevel){
+            event = StockEvent.LOW_STOCK;
+        }else{
+            event = StockEvent.RESTOCKED;
+        }
+        StockEventBus.getShared().publish(this, event);
+        return event;
+    }
+
+    /**
+     * Gets the stock level of a state word.
+     * @param state the state.
+     * @return the level.
+     */
+    private int levelOf(long state){
+        if ((state & PURCHASABLE_FLAG) == 0){
+            return SOLD_OUT_LEVEL;
+        }
+        return shouldWarnLowStock && stockOf(state) <= lowStockThreshold ? LOW_STOCK_LEVEL : IN_STOCK_LEVEL;
+    }
+
+    /**
+     * Packs the stock and the purchasable flag into one state word.
+     * @param stock the stock.
+     * @param purchasable if the item can be bought.
+     * @return the state.
+     */
+    private static long pack(int stock, boolean purchasable){
+        return (stock & STOCK_MASK) | (purchasable ? PURCHASABLE_FLAG : 0);
+    }
+
+    /**
+     * Gets the stock out of a state word.
+     * @param state the state.
+     * @return the stock.
+     */
+    private static int stockOf(long state){
+        return (int)state; // The low half, negative stock keeps its sign.
+    }
 }
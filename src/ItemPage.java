@@ -18,7 +18,7 @@ import java.util.Objects;
  * The page that displays an item.
  */
 public class ItemPage extends Page
-                implements ActionListener
+                implements ActionListener, StockEventBus.StockListener, UpdateCoalescer.Refreshable
 
 {
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
@@ -37,6 +37,7 @@ public class ItemPage extends Page
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     private JPanel contentPane, detailsPane;
     private Item   item;
+    private PurchaseJournal purchaseJournal; // Null if purchases only live in memory.
     private JLabel itemDescriptionLabel, itemAuthorLabel, itemPriceLabel;
     private CatalogButton purchaseButton;
     private Color backgroundColor, foregroundColor, correctedColor;
@@ -88,17 +89,76 @@ public class ItemPage extends Page
     }
 
     /**
-     * Changes up the item after a purchase.
+     * Buys some of the item and shows the result once it is saved.
+     * The journal buys and saves the purchase on its own thread, so the page never waits for the disk.
+     * A purchase that could not be saved leaves the stock with the item and is shown as failed.
      * @param amount The amount purchased
+     * @param inputRobux The amount of robux inputted by the user.
+     * @param excessRobux The change of the user.
+     * @param popUpSize The size of the popup.
+     */
+    private void handlePurchase(int amount, int inputRobux, String excessRobux, Dimension popUpSize){
+        if (purchaseJournal == null || !purchaseJournal.contains(item)){ // Only kept in memory.
+            displayPopUpPurchaseResult(item.tryPurchase(amount), inputRobux, excessRobux, popUpSize); // Take the stock in one step, so concurrent buyers can not oversell.
+            return;
+        }
+        purchaseButton.setEnabled(false); // One order at a time until this one is saved.
+        purchaseJournal.purchaseLater(item, amount).whenComplete((result, e) -> SwingUtilities.invokeLater(() -> {
+            purchaseButton.setEnabled(true);
+            if (e == null){
+                displayPopUpPurchaseResult(result, inputRobux, excessRobux, popUpSize);
+                return;
+            }
+            System.err.printf("JOURNAL ERROR: PURCHASE OF %d %s WAS NOT SAVED (%s)\n", amount, item, e.getCause() == null ? e : e.getCause());
+            displayPopUpPurchaseFailed(String.format("Your purchase of %s could not be saved.<br>Your %s <font color=green>Robux</font> were not spent.", item.toString(), inputRobux), popUpSize);
+        }));
+    }
+
+    /**
+     * Creates a popup for what a purchase did.
+     * @param result What the purchase did.
+     * @param inputRobux The amount of robux inputted by the user.
+     * @param excessRobux The change of the user.
+     * @param popUpSize The size of the popup.
+     */
+    private void displayPopUpPurchaseResult(Item.PurchaseResult result, int inputRobux, String excessRobux, Dimension popUpSize){
+        if (result.isSuccessful()){ // The page hears about a low stock or sold out item from the event.
+            displayPopUpPurchaseSuccessful(excessRobux, popUpSize);
+        }else{ // If the stock was bought by someone else in the meantime.
+            displayPopUpPurchaseFailed(String.format("Only %s %s left.<br>Your %s <font color=green>Robux</font> were not spent.", item.getStock(), item.toString(), inputRobux), popUpSize);
+        }
+    }
+
+    /**
+     * Shows the stock state of the item in the page title.
      */
-    private void handlePurchase(int amount){
-        item.setStock(item.getStock() - amount); // Update the stock
-        if(item.isShouldWarnLowStock() && item.getStock() <= item.getLowStockThreshold() && item.getStock() > 0){ // If we should warn of low stock.
+    private void updateStockTitle(){
+        int stock = item.getStock();
+        if(item.isShouldWarnLowStock() && stock <= item.getLowStockThreshold() && stock > 0){ // If we should warn of low stock.
             this.setPageTitle(String.format("<html><font color=orange>LOW STOCK</font> %s</html>", item.toString())); // Set it as low stock.
-        }else if(item.getStock() <= 0){ // If there is no more stock.
+        }else if(!item.isPurchasable()){ // If there is no more stock.
             this.setPageTitle(String.format("<html><font color=red>SOLD OUT</font> %s</html>", item.toString())); // Tell the user it is sold out.
-            this.remove(purchaseButton); // Remove purchasing capabilities.
+        }else{
+            this.setPageTitle(item.toString()); // Back in stock.
         }
+        purchaseButton.setVisible(item.isPurchasable()); // Only offer purchasing while it can be bought.
+    }
+
+    /**
+     * Called when the stock of the item moves into another level or its price changes, on the thread that changed it.
+     * @param changedItem the item.
+     * @param event what happened.
+     */
+    public void stockChanged(Item changedItem, Item.StockEvent event){
+        UpdateCoalescer.getShared().markDirty(this); // Shown in the next frame, together with every other change until then.
+    }
+
+    /**
+     * Shows the current stock and price of the item, called once per frame at most.
+     */
+    public void refresh(){
+        updateStockTitle();
+        refreshItemPrice();
     }
 
     /**
@@ -152,31 +212,51 @@ public class ItemPage extends Page
      */
     private void displayPopUpPurchaseResult(int inputRobux, int requiredRobux, int amountPurchased, Dimension popUpSize){
         String excessRobux = String.valueOf((Math.abs(inputRobux - requiredRobux))); // Get the robux required / needed.
-        String popUpTitle;
+        if (inputRobux >= requiredRobux){ // If the user has enough robux.
+            handlePurchase(amountPurchased, inputRobux, excessRobux, popUpSize);
+        }else{
+            displayPopUpPurchaseFailed(String.format("You need %s more <font color=green>Robux</font> to buy %s.<br>Please try again.", excessRobux, item.toString()), popUpSize);
+        }
+    }
+
+    /**
+     * Creates a popup for a successful purchase.
+     * @param excessRobux The change of the user.
+     * @param popUpSize The size of the popup.
+     */
+    private void displayPopUpPurchaseSuccessful(String excessRobux, Dimension popUpSize){
+        displayPopUp("PURCHASE SUCCESSFUL :)", "success", String.format("<html><font color=green>PURCHASE SUCCESSFUL</font><br>Enjoy your new %s<br>Your change is %s <font color=green>Robux</font></html>", item.toString(), excessRobux), popUpSize);
+        // ^^ Use html for this since creating a new JPanel will be too tedious.
+    }
+
+    /**
+     * Creates a popup for a failed purchase.
+     * @param reason Why it failed, as html.
+     * @param popUpSize The size of the popup.
+     */
+    private void displayPopUpPurchaseFailed(String reason, Dimension popUpSize){
+        displayPopUp("PURCHASE FAILED :(", "fail", String.format("<html><font color=red>PURCHASE FAILED</font><br>%s</html>", reason), popUpSize);
+        // ^^ Use html to tell user of a failed purchase.
+    }
+
+    /**
+     * Creates a popup with a picture and a text.
+     * @param popUpTitle The title of the popup.
+     * @param pictureName The name of the picture in the site pictures.
+     * @param text The text, as html.
+     * @param popUpSize The size of the popup.
+     */
+    private void displayPopUp(String popUpTitle, String pictureName, String text, Dimension popUpSize){
         JPanel backPanel   = new JPanel(); // The root panel.
         JLabel resultLabel = new JLabel(); // Create the result panel.
-        Picture resultPicture;
         backPanel.setLayout(new BoxLayout(backPanel, BoxLayout.PAGE_AXIS)); // Use box layout and make it top to bottom.
         backPanel.setAlignmentX(CENTER_ALIGNMENT); // Align everything to the center.
         backPanel.setBackground(foregroundColor); // Set the background color with foreground to create contrast.
         backPanel.setSize(popUpSize); // Set the size of the popup.
 
-
-
-        if (inputRobux >= requiredRobux){ // If the user has enough robux.
-            popUpTitle = "PURCHASE SUCCESSFUL :)";
-            handlePurchase(amountPurchased); // handle the purchasing.
-            // get the success picture.
-            resultPicture = new Picture("sitepictures", "success", "png", new Dimension(50, 50), new Dimension(50, 50));
-            setUpPromptFormLabel(String.format("<html><font color=green>PURCHASE SUCCESSFUL</font><br>Enjoy your new %s<br>Your change is %s <font color=green>Robux</font></html>", item.toString(), excessRobux), new Font("Arial", Font.BOLD,TEXT_SIZE), foregroundColor, backgroundColor, resultLabel, popUpSize.getSize());
-            // ^^ Use html for this since creating a new JPanel will be too tedious.
-        }else{
-            popUpTitle = "PURCHASE FAILED :(";
-            // get the failure picture.
-            resultPicture = new Picture("sitepictures", "fail", "png", new Dimension(50, 50), new Dimension(50, 50));
-            setUpPromptFormLabel(String.format("<html><font color=red>PURCHASE FAILED</font><br>You need %s more <font color=green>Robux</font> to buy %s.<br>Please try again.</html>", excessRobux, item.toString()), new Font("Arial", Font.BOLD,TEXT_SIZE), foregroundColor, backgroundColor, resultLabel, popUpSize.getSize());
-            // ^^ Use html to tell user of a failed purchase.
-        }
+        // get the result picture.
+        Picture resultPicture = new Picture("sitepictures", pictureName, "png", new Dimension(50, 50), new Dimension(50, 50));
+        setUpPromptFormLabel(text, new Font("Arial", Font.BOLD,TEXT_SIZE), foregroundColor, backgroundColor, resultLabel, popUpSize.getSize());
         resultPicture.setAlignmentX(CENTER_ALIGNMENT); // Align it to the center.
         backPanel.add(resultPicture); // Add the picture of the outcome.
         backPanel.add(Box.createRigidArea(new Dimension(0, 40))); // Add some spacing
@@ -345,10 +425,19 @@ public class ItemPage extends Page
      * draws the ItemPage.
      */
     public void draw(){ // Override
-        handlePurchase(0); // Before we draw we want to update the item page by throwing in a phony purchase.
+        StockEventBus.getShared().subscribe(item, this); // Hear about stock changes while on screen.
+        updateStockTitle(); // Catch up on changes made while the page was hidden, the events keep it up to date from here.
         super.draw();
     }
 
+    /**
+     * Hides the ItemPage.
+     */
+    public void undraw(){ // Override
+        StockEventBus.getShared().unsubscribe(item, this); // Hidden pages do not listen, so released pages can be collected.
+        super.undraw();
+    }
+
     /**
      * Constructor for the ItemPage object.
      * @param backgroundColor the background color.
@@ -361,6 +450,7 @@ public class ItemPage extends Page
     public ItemPage(Color backgroundColor, String pageName, Catalog parentCatalog, Item item, Page previousPage, Color foreground) {
         super(backgroundColor, pageName, parentCatalog);
         this.item = item;
+        this.purchaseJournal = parentCatalog == null ? null : parentCatalog.getPurchaseJournal();
         this.backgroundColor = backgroundColor;
         this.foregroundColor = foreground;
         // ENCHANCE COLOR (Pitch up the color)
@@ -377,7 +467,7 @@ public class ItemPage extends Page
         contentPane.setMaximumSize(new Dimension(CONTENT_PANE_WIDTH, CONTENT_PANE_HEIGHT));
         contentPane.setMinimumSize(new Dimension(CONTENT_PANE_WIDTH, CONTENT_PANE_HEIGHT));
         contentPane.setLayout(new GridLayout(2,1)); // Set this content pane out as a grid layout 2 by 1.
-        contentPane.add(new Picture("itempictures", item.toString(), "png", new Dimension(IMAGE_LENGTH, IMAGE_LENGTH),  new Dimension(IMAGE_LENGTH, IMAGE_LENGTH)));
+        contentPane.add(new Picture("itempictures", item.toString(), "png", new Dimension(IMAGE_LENGTH, IMAGE_LENGTH),  new Dimension(IMAGE_LENGTH, IMAGE_LENGTH), true));
         add(contentPane);
         contentPane.setOpaque(false);
         handleItemDetails(); // Set up the details panel.
@@ -411,7 +501,9 @@ public class ItemPage extends Page
         if(actionObject instanceof CatalogButton){ // Check if the object is an instance of the catalog button.
             CatalogButton catalogObject = (CatalogButton) actionObject;
             if(catalogObject.getPage() != null){ // If there is a page linked then the user wants to go back.
-                this.loadPage(((CatalogButton) actionObject).getPage());
+                if (!goBack()){ // Nothing in the history, so go to the linked page.
+                    this.loadPage(((CatalogButton) actionObject).getPage());
+                }
             }else{ // If there is no page linked then it should be a popup.
                 promptOrderForm(new Dimension(500, getHeight()/2));
             }
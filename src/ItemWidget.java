@@ -2,12 +2,13 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.function.Supplier;
 
 /**
  * Displays the item as a widget.
  */
 public class ItemWidget extends JPanel
-                implements ActionListener
+                implements ActionListener, StockEventBus.StockListener, UpdateCoalescer.Refreshable
 {
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     //-- CONSTANTS
@@ -19,17 +20,24 @@ public class ItemWidget extends JPanel
     private final int    MAX_WIDGET_WIDTH      = 200;
     private final int    MAX_WIDGET_HEIGHT     = 70;
     private final int    LINKED_PAGE_WIDTH     = 150, LINKED_PAGE_HEIGHT = 50;
+    private final Color  LOW_STOCK_COLOR       = Color.ORANGE;
+    private final Color  SOLD_OUT_COLOR        = Color.RED;
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     //-- Object Variables
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     private String   itemName;
     private String[] itemTags;
     private Catalog  parentCatalog;
+    private ItemsLayout parentLayout;
     private Item     item;
+    private Color    textColor;
+    private boolean  isFollowingStock = true; // Subscribed to the stock events of the item, not while hidden as a spare cell.
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     //-- Swing Objects
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
-    private JLabel itemNameLabel;
+    private JLabel        itemNameLabel, itemRobuxAmountLabel;
+    private Picture       itemPicture;
+    private CatalogButton linkedCatalogButton;
 
 
     /**
@@ -47,6 +55,72 @@ public class ItemWidget extends JPanel
     public Item   getItem(){
         return this.item;
     }
+
+    /**
+     * Shows another item in this widget, so a scrolled out widget can be reused instead of building a new one.
+     * @param newItem the item to show.
+     */
+    public void setItem(Item newItem){
+        if (newItem == item && isFollowingStock){ // Already showing it.
+            return;
+        }
+        StockEventBus.getShared().unsubscribe(item, this); // Does nothing if it was hidden.
+        StockEventBus.getShared().subscribe(newItem, this); // Follow the stock of the shown item only.
+        isFollowingStock = true;
+        if (newItem != item){
+            item     = newItem;
+            itemName = newItem.toString();
+            itemPicture.setPicture(itemName);
+            Font originalFont = (Font)itemNameLabel.getClientProperty("originalfont");
+            if (originalFont != null){ // Measure the new name at full size.
+                itemNameLabel.setFont(originalFont);
+            }
+            itemNameLabel.setText(itemName);
+            setScaledText(itemNameLabel, itemName, MAX_WIDGET_WIDTH); // Scale the text
+        }
+        updateStockLabel(); // The stock may have changed while it was hidden.
+    }
+
+    /**
+     * Stops following the stock of the item while the widget is hidden as a spare cell, setItem follows an item again.
+     */
+    public void stopFollowingStock(){
+        if (isFollowingStock){
+            StockEventBus.getShared().unsubscribe(item, this);
+            isFollowingStock = false;
+        }
+    }
+
+    /**
+     * Shows the price, colored by the stock level, or that the item is sold out.
+     */
+    private void updateStockLabel(){
+        if (!item.isPurchasable()){
+            itemRobuxAmountLabel.setText("SOLD OUT");
+            itemRobuxAmountLabel.setForeground(SOLD_OUT_COLOR);
+            return;
+        }
+        boolean isLowStock = item.isShouldWarnLowStock() && item.getStock() <= item.getLowStockThreshold();
+        itemRobuxAmountLabel.setText(String.valueOf(item.getRobuxPrice()));
+        itemRobuxAmountLabel.setForeground(isLowStock ? LOW_STOCK_COLOR : textColor);
+    }
+
+    /**
+     * Called when the stock of the shown item moves into another level or its price changes, on the thread that changed it.
+     * @param changedItem the item.
+     * @param event what happened.
+     */
+    public void stockChanged(Item changedItem, Item.StockEvent event){
+        UpdateCoalescer.getShared().markDirty(this); // Shown in the next frame, together with every other change until then.
+    }
+
+    /**
+     * Shows the current stock and price of the shown item, called once per frame at most.
+     * The widget may show another item by now, then that one is shown.
+     */
+    public void refresh(){
+        updateStockLabel();
+    }
     //https://stackoverflow.com/questions/19194699/i-want-to-decrease-the-font-size-if-text-doesnt-fit-in-jlabel
 
     /**
@@ -118,11 +192,10 @@ public class ItemWidget extends JPanel
 
 
         // Set up the robux amount label.
-        JLabel itemRobuxAmountLabel = new JLabel();
+        itemRobuxAmountLabel = new JLabel();
         itemRobuxAmountLabel.setSize(getWidth(), getHeight()/3);
         itemRobuxAmountLabel.setFont(new Font("Arial", Font.BOLD, TEXT_SIZE));
-        itemRobuxAmountLabel.setText(String.valueOf(item.getRobuxPrice()));
-        itemRobuxAmountLabel.setForeground(textColor);
+        updateStockLabel();
         robuxPanel.add(Box.createRigidArea(new Dimension(5, 0)));
         robuxPanel.add(itemRobuxAmountLabel);
         //
@@ -131,6 +204,7 @@ public class ItemWidget extends JPanel
         add(Box.createRigidArea(new Dimension(0, 10)));
 
         // Set up the linked button.
+        this.linkedCatalogButton = linkedCatalogButton;
         linkedCatalogButton.setButtonName("VIEW");
         linkedCatalogButton.setFont(new Font("Arial", Font.BOLD, TEXT_SIZE+10));
         linkedCatalogButton.setButtonForegroundColor(textColor);
@@ -147,8 +221,9 @@ public class ItemWidget extends JPanel
      * @param e The action event that holds the object.
      */
     public void actionPerformed(ActionEvent e) {
-        CatalogButton sourceCatalogButton = (CatalogButton)e.getSource(); // Get the source.
-        parentCatalog.loadPage(sourceCatalogButton.getPage()); // Now load the page using the catalog object.
+        Item shownItem = item; // The widget may show another item by the time the page is built again.
+        Supplier<Page> pageBuilder = () -> parentLayout.getItemPage(shownItem); // Reuses the page while the layout still keeps it.
+        parentCatalog.loadPage(pageBuilder.get(), pageBuilder); // The page is only built once it is needed, and again if the history released it.
     }
 
 
@@ -159,9 +234,12 @@ public class ItemWidget extends JPanel
      * @param foregroundColor The text color.
      * @param linkedCatalogButton The button which links the item widget to the item's page.
      * @param parentCatalog The parent catalog object.
+     * @param parentLayout The layout holding the widget, which builds the item pages.
      */
-    public ItemWidget(Item o, Dimension widgetSize, Color foregroundColor, CatalogButton linkedCatalogButton, Catalog parentCatalog){
+    public ItemWidget(Item o, Dimension widgetSize, Color foregroundColor, CatalogButton linkedCatalogButton, Catalog parentCatalog, ItemsLayout parentLayout){
         this.parentCatalog = parentCatalog;
+        this.parentLayout  = parentLayout;
+        this.textColor     = foregroundColor;
         this.item = o;
         itemName  = o.toString();
         setVisible(true);
@@ -173,10 +251,11 @@ public class ItemWidget extends JPanel
         this.setOpaque(false);
 
         // Create the item's picture.
-        Picture itemPicture = new Picture(ITEM_ROOT_DIRECTORY, o.toString(), "png", new Dimension((int)getWidth() - COMPONENT_PADDING, (int)getWidth() - COMPONENT_PADDING),  new Dimension((int)getWidth() - COMPONENT_PADDING, (int)getWidth() - COMPONENT_PADDING));
+        itemPicture = new Picture(ITEM_ROOT_DIRECTORY, o.toString(), "png", new Dimension((int)getWidth() - COMPONENT_PADDING, (int)getWidth() - COMPONENT_PADDING),  new Dimension((int)getWidth() - COMPONENT_PADDING, (int)getWidth() - COMPONENT_PADDING), true); // Decode in the background so scrolling never waits on it.
         this.add(itemPicture);
 
         handleWidgetItems(foregroundColor, linkedCatalogButton);
+        StockEventBus.getShared().subscribe(o, this); // Hear about stock changes of the shown item.
 
 
         setVisible(true);
@@ -1,68 +1,106 @@
 import javax.swing.*;
+import javax.swing.event.ChangeListener;
 import java.awt.*;
-import java.lang.reflect.Array;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 /**
  * Displays the item widgets in a layout.
+ * Only the rows inside the scroll pane's viewport (plus a few rows of overscan) get a widget.
+ * Widgets that scroll out are reused for the items that scroll in, so the amount of widgets depends on the viewport
+ * and not on the amount of items. The cells are placed the way the centered wrap layout placed them.
+ * Changing the shown items is a diff of the bound cells: items that stay on screen keep their widget and only move,
+ * so only the widgets of items that come into view are bound again.
+ * Item pages are only built once their VIEW button is clicked. The most recently opened ones are kept, so opening an item again reuses its page.
  */
-public class ItemsLayout extends JPanel {
+public class ItemsLayout extends JPanel
+                implements Scrollable
+{
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private final int CELL_WIDTH     = 200, CELL_HEIGHT = 350;
+    private final int CELL_GAP       = 5;  // Same gap as the flow layout used.
+    private final int OVERSCAN_ROWS  = 1;  // Rows bound above and below the viewport so scrolling does not show empty space.
+    private final int UNIT_INCREMENT = 16;
+    private final int MAX_ITEM_PAGES = 16; // Opened item pages kept around, older ones are built again when needed.
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     //-- OBJECT VALUES
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
-    private ArrayList<ItemWidget> itemWidgetsList = new ArrayList<>();
-    private ArrayList<ItemPage>   itemPages       = new ArrayList<>();
+    private ArrayList<Item>       allItems       = new ArrayList<>();
+    private ArrayList<Item>       displayedItems = allItems;          // The items in the order they are shown.
+    private IdentityHashMap<Item, ItemWidget> boundCells = new IdentityHashMap<>(); // The cells on screen by their item.
+    private IdentityHashMap<Item, ItemWidget> nextCells  = new IdentityHashMap<>(); // Swapped with boundCells on every update.
+    private ArrayDeque<ItemWidget>            spareCells = new ArrayDeque<>();       // Hidden cells ready to be bound.
+    private Set<Item>             layoutItems    = Collections.newSetFromMap(new IdentityHashMap<>());
+    private LinkedHashMap<Item, ItemPage> itemPages = new LinkedHashMap<Item, ItemPage>(16, 0.75f, true) { // Access order, so the eldest page was opened the longest ago.
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Item, ItemPage> eldest){
+            return size() > MAX_ITEM_PAGES && !eldest.getValue().isDrawn(); // Never drop the page on screen.
+        }
+    };
     private Catalog parentCatalog;
     private Page    parentPage;
     private Color   backgroundColor, foregroundColor;
+    private JViewport      viewport;
+    private ChangeListener viewportListener = e -> updateCells(); // Rebind the cells while scrolling.
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     //-- METHODS
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
 
     /**
-     * Gets the ItemWidget object for a specific item.
-     * @param item the item object.
-     * @return null if no ItemWidget is found and itemWidget if an item is found.
+     * Adds a new item to the items layout.
+     * @param newItem the new item that will be added.
      */
-    private ItemWidget getWidgetForItem(Item item){
-        for (ItemWidget itemWidget: itemWidgetsList){
-            if(itemWidget.getItem() == item){
-                return itemWidget;
-            }
+    public void addItem(Item newItem){
+        setUpItem(newItem);
+        if (displayedItems != allItems){ // Show it at the end like the other items.
+            displayedItems.add(newItem);
         }
-        return null;
+        refresh();
     }
 
     /**
-     * Adds a new item to the items layout.
-     * @param newItem the new item that will be added.
+     * Adds new items to the items layout, laying out once for all of them.
+     * Search results are left as they are, the owner searches again to find out which of the new items match.
+     * @param newItems the new items that will be added.
      */
-    public void addItem(Item newItem){
-        setUpItem(newItem);
+    public void addItems(List<Item> newItems){
+        for (Item newItem : newItems){
+            setUpItem(newItem);
+        }
+        if (displayedItems == allItems){ // Only the full list shows them right away.
+            refresh();
+        }
     }
 
     /**
-     * undraws the items in the layout.
+     * Gets the page of an item, building it the first time it is opened.
+     * @param item the item object.
+     * @return the item page.
      */
-    private void undrawAllItems(){
-        for(ItemWidget itemWidget: itemWidgetsList){
-            itemWidget.setVisible(false);
-            remove(itemWidget);
+    public ItemPage getItemPage(Item item){
+        ItemPage itemPage = itemPages.get(item);
+        if (itemPage == null){
+            itemPage = new ItemPage(backgroundColor, item.toString(), parentCatalog, item, parentPage, foregroundColor); // Get the new page for the item.
+            itemPages.put(item, itemPage);
         }
+        return itemPage;
     }
 
     /**
      * draws out all the items in the layout.
      */
     public void drawAllItems(){
-        undrawAllItems();
-        repaint(); // Repaint it.
-        for(ItemWidget itemWidget: itemWidgetsList){
-            add(itemWidget);
-            itemWidget.setVisible(true);
-        }
-        repaint(); // Repaint it.
+        displayedItems = allItems;
+        refresh();
     }
 
     /**
@@ -70,14 +108,227 @@ public class ItemsLayout extends JPanel {
      * @param items The array list holding the items.
      */
     public void setItems(ArrayList<Item> items){
-        undrawAllItems();
+        displayedItems = new ArrayList<>(items.size());
         for(Item item: items){
-            ItemWidget foundWidget = getWidgetForItem(item);
-            if(foundWidget != null){
-                add(foundWidget);
-                foundWidget.setVisible(true);
+            if(layoutItems.contains(item)){ // Only show items of this layout.
+                displayedItems.add(item);
+            }
+        }
+        refresh();
+    }
+
+    /**
+     * Lays out the cells for the current size.
+     */
+    @Override
+    public void doLayout(){
+        updateCells();
+    }
+
+    /**
+     * Gets the preferred size, which holds every row of the shown items.
+     * @return the preferred size.
+     */
+    @Override
+    public Dimension getPreferredSize(){
+        if (isPreferredSizeSet()){
+            return super.getPreferredSize();
+        }
+        int    width   = getLayoutWidth();
+        int    rows    = getRowCount(getColumnCount(width));
+        Insets insets  = getInsets();
+        int    height  = insets.top + insets.bottom + CELL_GAP * 2;
+        if (rows > 0){
+            height += rows * CELL_HEIGHT + (rows - 1) * CELL_GAP;
+        }
+        return new Dimension(width, height);
+    }
+
+    /**
+     * Gets the preferred size of the viewport.
+     * @return the preferred size of the layout, like a panel that does not scroll itself.
+     */
+    @Override
+    public Dimension getPreferredScrollableViewportSize(){
+        return getPreferredSize();
+    }
+
+    /**
+     * Gets how far a scroll bar click scrolls.
+     * @param visibleRect the visible area.
+     * @param orientation the scroll orientation.
+     * @param direction the scroll direction.
+     * @return the unit increment.
+     */
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction){
+        return UNIT_INCREMENT;
+    }
+
+    /**
+     * Gets how far a scroll bar page click scrolls.
+     * @param visibleRect the visible area.
+     * @param orientation the scroll orientation.
+     * @param direction the scroll direction.
+     * @return the block increment, one visible area.
+     */
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction){
+        return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+    }
+
+    /**
+     * The layout wraps its rows to the viewport width.
+     * @return true.
+     */
+    @Override
+    public boolean getScrollableTracksViewportWidth(){
+        return true;
+    }
+
+    /**
+     * The layout scrolls vertically.
+     * @return false.
+     */
+    @Override
+    public boolean getScrollableTracksViewportHeight(){
+        return false;
+    }
+
+    /**
+     * Starts listening to the viewport once the layout is put in a scroll pane.
+     */
+    @Override
+    public void addNotify(){
+        super.addNotify();
+        if (getParent() instanceof JViewport){
+            viewport = (JViewport)getParent();
+            viewport.addChangeListener(viewportListener);
+        }
+    }
+
+    /**
+     * Stops listening to the viewport.
+     */
+    @Override
+    public void removeNotify(){
+        if (viewport != null){
+            viewport.removeChangeListener(viewportListener);
+            viewport = null;
+        }
+        super.removeNotify();
+    }
+
+    /**
+     * Lays out the layout again after the shown items changed.
+     */
+    private void refresh(){
+        if (getPreferredSize().height != getHeight()){ // The row count changed, so the scroll pane has to lay out again.
+            revalidate();
+        }
+        updateCells();
+        repaint(); // Repaint it once for every moved and bound cell.
+    }
+
+    /**
+     * Binds the cells to the items in and around the visible area and moves them in place.
+     */
+    private void updateCells(){
+        int itemCount = displayedItems.size();
+        int columns   = getColumnCount(getLayoutWidth());
+        int rowCount  = getRowCount(columns);
+        Rectangle visibleArea = getVisibleRect();
+        if (visibleArea.isEmpty()){ // Not on screen yet, bind the first screen.
+            visibleArea = new Rectangle(0, 0, getLayoutWidth(), getMinimumSize().height);
+        }
+        int rowTop    = getInsets().top + CELL_GAP;
+        int rowPitch  = CELL_HEIGHT + CELL_GAP;
+        int firstRow  = Math.max(0, (visibleArea.y - rowTop) / rowPitch - OVERSCAN_ROWS);
+        int lastRow   = Math.min(rowCount - 1, (visibleArea.y + visibleArea.height - rowTop) / rowPitch + OVERSCAN_ROWS);
+        int start     = Math.min(itemCount, firstRow * columns);
+        int end       = Math.min(itemCount, (lastRow + 1) * columns);
+        for (int itemIndex = start; itemIndex < end; itemIndex++){ // Keep the cells whose item stays on screen.
+            Item       item       = displayedItems.get(itemIndex);
+            ItemWidget itemWidget = boundCells.remove(item);
+            if (itemWidget != null){
+                nextCells.put(item, itemWidget);
             }
         }
+        for (ItemWidget itemWidget : boundCells.values()){ // Their items left the screen.
+            itemWidget.setVisible(false);
+            itemWidget.stopFollowingStock(); // Hidden cells do not need the events of their old item.
+            spareCells.push(itemWidget);
+        }
+        boundCells.clear();
+        for (int itemIndex = start; itemIndex < end; itemIndex++){
+            Item       item       = displayedItems.get(itemIndex);
+            ItemWidget itemWidget = nextCells.get(item);
+            if (itemWidget == null){ // Came into view.
+                itemWidget = spareCells.poll();
+                if (itemWidget == null){ // The viewport grew.
+                    CatalogButton itemPageCatalogButton = new CatalogButton((Page)null); // Get the button for the widget, the page is linked once it is clicked.
+                    itemWidget = new ItemWidget(item, new Dimension(CELL_WIDTH, CELL_HEIGHT), foregroundColor, itemPageCatalogButton, parentCatalog, this); // Create the widget.
+                    add(itemWidget); // Add it to the layout.
+                }
+                itemWidget.setItem(item);
+                nextCells.put(item, itemWidget);
+            }
+            itemWidget.setBounds(getCellBounds(itemIndex, columns, itemCount)); // Does nothing if it did not move.
+            itemWidget.setVisible(true);
+        }
+        IdentityHashMap<Item, ItemWidget> previousCells = boundCells;
+        boundCells = nextCells;
+        nextCells  = previousCells;
+    }
+
+    /**
+     * Gets where the cell of an item goes, centering every row the way the flow layout does.
+     * @param itemIndex the index of the item.
+     * @param columns the amount of columns.
+     * @param itemCount the amount of shown items.
+     * @return the bounds of the cell.
+     */
+    private Rectangle getCellBounds(int itemIndex, int columns, int itemCount){
+        Insets insets   = getInsets();
+        int row         = itemIndex / columns;
+        int column      = itemIndex % columns;
+        int rowCells    = Math.min(columns, itemCount - row * columns);
+        int rowWidth    = rowCells * CELL_WIDTH + (rowCells - 1) * CELL_GAP;
+        int maxWidth    = getLayoutWidth() - insets.left - insets.right - CELL_GAP * 2;
+        int x           = insets.left + CELL_GAP + (maxWidth - rowWidth) / 2 + column * (CELL_WIDTH + CELL_GAP);
+        int y           = insets.top + CELL_GAP + row * (CELL_HEIGHT + CELL_GAP);
+        return new Rectangle(x, y, CELL_WIDTH, CELL_HEIGHT);
+    }
+
+    /**
+     * Gets how many cells fit next to each other.
+     * @param width the width of the layout.
+     * @return the column count, at least 1.
+     */
+    private int getColumnCount(int width){
+        Insets insets = getInsets();
+        int maxWidth  = width - insets.left - insets.right - CELL_GAP * 2;
+        return Math.max(1, (maxWidth + CELL_GAP * 2) / (CELL_WIDTH + CELL_GAP)); // The flow layout checks the fit before it adds the gap.
+    }
+
+    /**
+     * Gets how many rows the shown items need.
+     * @param columns the amount of columns.
+     * @return the row count.
+     */
+    private int getRowCount(int columns){
+        return (displayedItems.size() + columns - 1) / columns;
+    }
+
+    /**
+     * Gets the width the rows wrap at.
+     * @return the viewport width once the layout is in a scroll pane, otherwise the layout's own width.
+     */
+    private int getLayoutWidth(){
+        if (viewport != null && viewport.getWidth() > 0){
+            return viewport.getWidth();
+        }
+        return getWidth() > 0 ? getWidth() : getMinimumSize().width;
     }
 
     /**
@@ -85,12 +336,8 @@ public class ItemsLayout extends JPanel {
      * @param item The item that should be set up.
      */
     private void setUpItem(Item item){
-        ItemPage   itemPage                 = new ItemPage(backgroundColor, item.toString(), parentCatalog, item, parentPage, foregroundColor); // Get the new page for the item.
-        CatalogButton itemPageCatalogButton = new CatalogButton(itemPage); // Get the button for the widget.
-        ItemWidget itemWidget               = new ItemWidget(item, new Dimension(200, 350), foregroundColor, itemPageCatalogButton, parentCatalog); // Create the widget.
-        itemWidgetsList.add(itemWidget); // Add it to the widget list.
-        itemPages.add(itemPage); // Ad it to the item page.
-        add(itemWidget); // Add it to the layout.
+        layoutItems.add(item);
+        allItems.add(item);
     }
 
     /**
@@ -110,11 +357,11 @@ public class ItemsLayout extends JPanel {
         this.setMinimumSize(size); // Set the size.
         this.setMaximumSize(size);
         this.setBackground(backgroundColor);
-        this.setLayout(new WrapLayout(FlowLayout.CENTER)); // Using Wrap Layout (Open Source Code, Very handy).
+        this.setLayout(null); // The cells are placed by updateCells.
 
         for (Item item : items) { // Set up the items.
             setUpItem(item);
         }
-
+        updateCells();
     }
 }
@@ -60,6 +60,14 @@ public class Page extends JPanel {
         parentCatalog.loadPage(o);
     }
 
+    /**
+     * Goes back to the page shown before this one.
+     * @return true if there was a page to go back to.
+     */
+    public boolean goBack(){
+        return parentCatalog.goBack();
+    }
+
     /**
      * Draws out the page.
      */
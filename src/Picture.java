@@ -10,16 +10,54 @@ import java.net.URL;
 
 /**
  * The picture class.
+ * A picture that loads later shows a placeholder of the same size until its image is decoded on a worker thread.
  */
 public class Picture extends JLabel{
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final Color PLACEHOLDER_COLOR = new Color(255, 255, 255, 40);
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     //-- OBJECT VALUES.
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     private String iconName;
     private String imageIdentifier, imageName, imageFileType;
     private String parsedImageLocation;
-    private ImageIcon imageIcon;
+    private Icon      imageIcon;
     private Dimension imageSize, labelSize;
+    private boolean   shouldLoadLater;
+
+    /**
+     * A flat box the size of the image, shown while the image is loading.
+     */
+    private static class PlaceholderIcon implements Icon {
+        private int width, height;
+
+        @Override
+        public void paintIcon(Component c, Graphics g, int x, int y){
+            g.setColor(PLACEHOLDER_COLOR);
+            g.fillRect(x, y, width, height);
+        }
+
+        @Override
+        public int getIconWidth(){
+            return width;
+        }
+
+        @Override
+        public int getIconHeight(){
+            return height;
+        }
+
+        /**
+         * Constructor for the placeholder icon.
+         * @param size the size of the image it stands in for.
+         */
+        private PlaceholderIcon(Dimension size){
+            this.width  = size.width;
+            this.height = size.height;
+        }
+    }
 
 
     /**
@@ -29,7 +67,18 @@ public class Picture extends JLabel{
      * @param fileType the extension of the file.
      */
     private void parseLocation(String identifier, String pictureName, String fileType){
-        parsedImageLocation = String.format("/resources/%s/%s.%s", identifier, pictureName, fileType);
+        parsedImageLocation = getLocation(identifier, pictureName, fileType);
+    }
+
+    /**
+     * Gets the resource location of a picture.
+     * @param identifier the root directory.
+     * @param pictureName the picture name.
+     * @param fileType the extension of the file.
+     * @return the resource path, for example /resources/itempictures/Gravity Coil.png.
+     */
+    public static String getLocation(String identifier, String pictureName, String fileType){
+        return String.format("/resources/%s/%s.%s", identifier, pictureName, fileType);
     }
 
     /**
@@ -40,6 +89,48 @@ public class Picture extends JLabel{
         return iconName;
     }
 
+    /**
+     * Swaps the picture for another one in the same directory, keeping the sizes.
+     * @param pictureName the new picture's name.
+     */
+    public void setPicture(String pictureName){
+        if (pictureName.equals(imageName)){ // Already showing it.
+            return;
+        }
+        iconName  = pictureName;
+        imageName = pictureName;
+        parseLocation(imageIdentifier, pictureName, imageFileType);
+        loadIcon();
+    }
+
+    /**
+     * Sets the image at the parsed location as the icon, scaled to the image size.
+     * The shared image cache decodes and scales every picture only once per size.
+     */
+    private void loadIcon(){
+        ImageCache imageCache = ImageCache.getShared();
+        int width  = (int)imageSize.getWidth();
+        int height = (int)imageSize.getHeight();
+        if (!shouldLoadLater){
+            imageIcon = imageCache.getIcon(this.parsedImageLocation, width, height);
+            this.setIcon(imageIcon); // Set the icon to the image icon.
+            return;
+        }
+        imageIcon = imageCache.getCachedIcon(this.parsedImageLocation, width, height);
+        if (imageIcon != null){ // Decoded before, no need to wait.
+            this.setIcon(imageIcon);
+            return;
+        }
+        this.setIcon(new PlaceholderIcon(imageSize));
+        String requestedLocation = this.parsedImageLocation;
+        imageCache.loadIconLater(requestedLocation, width, height, loadedIcon -> {
+            if (requestedLocation.equals(this.parsedImageLocation)){ // The picture may have been swapped while it loaded.
+                imageIcon = loadedIcon;
+                this.setIcon(imageIcon);
+            }
+        });
+    }
+
     /**
      * Gets the size of the picture.
      * @return A dimension object holding the picture size.
@@ -65,19 +156,35 @@ public class Picture extends JLabel{
      * @param labelSize The label size.
      */
     public Picture(String identifier, String pictureName, String fileType, Dimension imageSize, Dimension labelSize){
+        this(identifier, pictureName, fileType, imageSize, labelSize, false);
+    }
+
+    /**
+     * Constructor for the Picture object.
+     * @param identifier The root directory of the object.
+     * @param pictureName The picture's name.
+     * @param fileType The file type of the image.
+     * @param imageSize The icon size.
+     * @param labelSize The label size.
+     * @param shouldLoadLater true to show a placeholder and decode the image on a worker thread.
+     */
+    public Picture(String identifier, String pictureName, String fileType, Dimension imageSize, Dimension labelSize, boolean shouldLoadLater){
+        this.shouldLoadLater = shouldLoadLater;
         iconName = pictureName;
+        imageIdentifier = identifier;
+        imageName       = pictureName;
+        imageFileType   = fileType;
         this.setOpaque(false);
         this.setSize(labelSize);
         // Set the dimensions.
-        labelSize = new Dimension(labelSize);
-        imageSize = new Dimension(imageSize);
+        this.labelSize = new Dimension(labelSize);
+        this.imageSize = new Dimension(imageSize);
         this.setHorizontalAlignment(JLabel.CENTER); // Align to the center.
         this.setVerticalAlignment(JLabel.CENTER);
         // Set the size
         this.setMinimumSize(labelSize);
         this.setMaximumSize(labelSize);
         parseLocation(identifier, pictureName, fileType); // Parse the location.
-        imageIcon = new ImageIcon(new ImageIcon(getClass().getResource(this.parsedImageLocation)).getImage().getScaledInstance((int)imageSize.getWidth(), (int)imageSize.getHeight(), Image.SCALE_SMOOTH)); // Set the image and scale it.
-        this.setIcon(imageIcon); // Set the icon to the image icon.
+        loadIcon();
     }
 }
@@ -0,0 +1,688 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An append only journal of purchases, restocks and price changes, so stock and prices survive a restart.
+ * Every change is one fixed size record written into a memory mapped segment file. A full segment is closed and the next one started.
+ * The change is made to the item while holding the journal lock and the record is written right after, so the records are in the same order
+ * as the changes. A change is only durable once the segment is forced to disk. Buyers that append while a force is running wait for the next one,
+ * which then covers all of them together, so a busy shop pays for one force per batch instead of one per purchase.
+ * Opening the journal replays the records onto the items, rebuilding the stock and prices they had.
+ * Changes made straight on a journaled item are not kept, restock them and change their price through the journal.
+ * Can be used from any thread.
+ *
+ * A segment is laid out as:
+ * <pre>
+ * header   magic, version, record size, padding, first sequence (long), padding to 32 bytes
+ * records  sequence (long), time in milliseconds (long), record type, item index, item key, value, flags, checksum
+ * </pre>
+ * Every number is big endian. Records follow each other with consecutive sequences, the first bad or missing one is the end of the journal.
+ * Items are found again by their index in the item list, so the list has to be in the same order every run. The key is the hash of the
+ * item name and catches a list that changed anyway.
+ */
+public class PurchaseJournal {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final int    SEGMENT_MAGIC      = 0x5243504A; // "RCPJ"
+    private static final int    SEGMENT_VERSION    = 2;        // 2 added restock and price records.
+    private static final int    HEADER_BYTES       = 32;
+    private static final int    RECORD_BYTES       = 40;
+    private static final int    SEGMENT_RECORDS    = 1 << 19;  // 20 MB segments.
+    private static final int    PURCHASABLE        = 1;        // Flag bit.
+    private static final int    SEGMENT_BYTES      = HEADER_BYTES + SEGMENT_RECORDS * RECORD_BYTES;
+    private static final String SEGMENT_PREFIX     = "purchases-", SEGMENT_SUFFIX = ".journal";
+    private static final int    MAX_REPORTED_SKIPS = 10;
+    private static final String DIRECTORY_PROPERTY = "catalog.journal"; // Overrides the default directory.
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private Path directory;
+    private List<Item> items;
+    private IdentityHashMap<Item, Integer> itemIndexes = new IdentityHashMap<>();
+    private MappedByteBuffer segment;          // The segment being appended to.
+    private int  position, flushedPosition;    // The end of the records in the segment, and the end of the part forced to disk.
+    private long lastSequence, durableSequence;
+    private boolean isFlushing, isClosed;
+    private long appendCount, forceCount, replayedCount, skippedCount;
+    private ExecutorService appendExecutor = Executors.newCachedThreadPool(task -> { // One thread per waiting buyer, so their purchases still share a force.
+        Thread thread = new Thread(task, "purchase journal");
+        thread.setDaemon(true); // Do not keep the application alive.
+        return thread;
+    });
+
+    /**
+     * The kinds of change the journal keeps.
+     */
+    public enum RecordType {
+        PURCHASE, // The value is the amount bought.
+        STOCK,    // The value is the new stock, the flags tell if the item can be bought.
+        PRICE     // The value is the new price in Robux.
+    }
+
+    /**
+     * Gets the records read back from the journal.
+     */
+    public interface RecordConsumer {
+        /**
+         * Takes a record.
+         * @param sequence the sequence of the record.
+         * @param type what changed.
+         * @param itemIndex the index of the item in the journaled list.
+         * @param value the amount bought, the new stock or the new price.
+         * @param purchasable if the item can be bought, only set by stock records.
+         */
+        void accept(long sequence, RecordType type, int itemIndex, int value, boolean purchasable);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Gets the directory the journal is kept in by default.
+     * @return the catalog.journal system property, or .robloxcatalog/journal in the home directory.
+     */
+    public static Path getDefaultDirectory(){
+        String overriddenDirectory = System.getProperty(DIRECTORY_PROPERTY);
+        if (overriddenDirectory != null){
+            return Paths.get(overriddenDirectory);
+        }
+        return Paths.get(System.getProperty("user.home"), ".robloxcatalog", "journal");
+    }
+
+    /**
+     * Opens the journal in a directory, replaying the records after a sequence onto the items.
+     * @param directory the journal directory, made if it is missing.
+     * @param items the journaled items, in the same order as every other run.
+     * @param afterSequence the last sequence already part of the item state, 0 to replay everything.
+     * @return the journal, ready to append to.
+     * @throws IOException if the directory or a segment could not be read or written.
+     */
+    public static PurchaseJournal open(Path directory, List<Item> items, long afterSequence) throws IOException {
+        PurchaseJournal journal = new PurchaseJournal(directory, items);
+        journal.replay(afterSequence);
+        return journal;
+    }
+
+    /**
+     * Checks if changes of an item can be journaled.
+     * @param item the item.
+     * @return true if the item was in the list the journal was opened with.
+     */
+    public boolean contains(Item item){
+        return itemIndexes.containsKey(item);
+    }
+
+    /**
+     * Buys some of an item and waits until the purchase is on disk.
+     * The stock is taken with Item.tryPurchase, so concurrent buyers can not oversell.
+     * If the purchase could not be made durable the stock is given back, and a stock record after it makes replay give it back too.
+     * @param item the item.
+     * @param quantity the amount to buy, at least 1.
+     * @return what the purchase did, nothing is journaled if it was rejected.
+     * @throws IOException if the purchase could not be made durable.
+     */
+    public Item.PurchaseResult purchase(Item item, int quantity) throws IOException {
+        int itemIndex = indexOf(item);
+        Item.PurchaseResult result;
+        long sequence;
+        synchronized (this){
+            prepareRecord();
+            result = item.tryPurchase(quantity);
+            if (!result.isSuccessful()){
+                return result;
+            }
+            sequence = writeNextRecord(RecordType.PURCHASE, itemIndex, item, quantity, false);
+        }
+        try {
+            commit(sequence);
+        } catch (IOException e) {
+            returnStock(item, itemIndex, quantity, e); // The buyer is told it failed, so they keep the stock.
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Buys some of an item on a journal thread, so the caller does not wait for the disk.
+     * @param item the item.
+     * @param quantity the amount to buy, at least 1.
+     * @return completes with what the purchase did once it is on disk, or with the IOException if it could not be made durable.
+     */
+    public CompletableFuture<Item.PurchaseResult> purchaseLater(Item item, int quantity){
+        CompletableFuture<Item.PurchaseResult> purchased = new CompletableFuture<>();
+        appendExecutor.execute(() -> {
+            try {
+                purchased.complete(purchase(item, quantity));
+            } catch (IOException | RuntimeException e) {
+                purchased.completeExceptionally(e);
+            }
+        });
+        return purchased;
+    }
+
+    /**
+     * Sets the stock of an item and if it can be bought, and waits until the change is on disk.
+     * @param item the item.
+     * @param stock the new stock.
+     * @param purchasable if the item can be bought, it never can without stock.
+     * @return the sequence of the change.
+     * @throws IOException if the change could not be made durable, the item keeps it anyway.
+     */
+    public long setStock(Item item, int stock, boolean purchasable) throws IOException {
+        int itemIndex = indexOf(item);
+        long sequence;
+        synchronized (this){
+            prepareRecord();
+            item.setStock(stock, purchasable);
+            sequence = writeNextRecord(RecordType.STOCK, itemIndex, item, stock, purchasable);
+        }
+        commit(sequence);
+        return sequence;
+    }
+
+    /**
+     * Sets the price of an item and waits until the change is on disk.
+     * @param item the item.
+     * @param robuxPrice the new price.
+     * @return the sequence of the change.
+     * @throws IOException if the change could not be made durable, the item keeps it anyway.
+     */
+    public long setRobuxPrice(Item item, int robuxPrice) throws IOException {
+        int itemIndex = indexOf(item);
+        long sequence;
+        synchronized (this){
+            prepareRecord();
+            item.setRobuxPrice(robuxPrice);
+            sequence = writeNextRecord(RecordType.PRICE, itemIndex, item, robuxPrice, false);
+        }
+        commit(sequence);
+        return sequence;
+    }
+
+    /**
+     * Reads back every durable record after a sequence, in order, while changes carry on.
+     * @param afterSequence the last sequence not to read.
+     * @param consumer gets the records.
+     * @return the sequence of the last record read, afterSequence if there were none.
+     * @throws IOException if a segment could not be read or a durable record is missing.
+     */
+    public long readRecords(long afterSequence, RecordConsumer consumer) throws IOException {
+        long durableEnd = getDurableSequence();
+        List<Path> segmentPaths = listSegments();
+        long sequence = afterSequence;
+        for (int i = 0; i < segmentPaths.size() && sequence < durableEnd; i++){
+            MappedByteBuffer readSegment = mapSegment(segmentPaths.get(i), FileChannel.MapMode.READ_ONLY);
+            long firstSequence = readSegment.getLong(16);
+            if (firstSequence > sequence + 1){
+                throw new IOException("Records " + (sequence + 1) + " to " + (firstSequence - 1) + " are missing from " + directory);
+            }
+            if (firstSequence + SEGMENT_RECORDS <= sequence + 1){ // Every record in it was read already.
+                continue;
+            }
+            int recordPosition = HEADER_BYTES + (int)(sequence + 1 - firstSequence) * RECORD_BYTES;
+            while (sequence < durableEnd && recordPosition + RECORD_BYTES <= SEGMENT_BYTES){
+                if (!isValidRecord(readSegment, recordPosition, sequence + 1)){
+                    throw new IOException("Record " + (sequence + 1) + " in " + segmentPaths.get(i) + " is damaged");
+                }
+                sequence++;
+                consumer.accept(sequence, RecordType.values()[readSegment.getInt(recordPosition + 16)], readSegment.getInt(recordPosition + 20),
+                        readSegment.getInt(recordPosition + 28), (readSegment.getInt(recordPosition + 32) & PURCHASABLE) != 0);
+                recordPosition += RECORD_BYTES;
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Deletes the segments whose records all came before a sequence, once a snapshot holds them.
+     * The segment being appended to is always kept.
+     * @param sequence the last sequence that is no longer needed.
+     * @return the amount of deleted segments.
+     * @throws IOException if a segment could not be deleted.
+     */
+    public int deleteSegmentsBefore(long sequence) throws IOException {
+        List<Path> segmentPaths = listSegments();
+        int deletedCount = 0;
+        for (int i = 0; i + 1 < segmentPaths.size(); i++){
+            if (firstSequenceOf(segmentPaths.get(i + 1)) - 1 > sequence){ // The segment still holds needed records, so do all the later ones.
+                break;
+            }
+            Files.deleteIfExists(segmentPaths.get(i));
+            deletedCount++;
+        }
+        return deletedCount;
+    }
+
+    /**
+     * Forces everything appended so far to disk and stops taking changes.
+     * @throws IOException if the last records could not be forced.
+     */
+    public void close() throws IOException {
+        long sequence;
+        synchronized (this){
+            sequence = lastSequence;
+        }
+        commit(sequence);
+        synchronized (this){
+            isClosed = true;
+        }
+    }
+
+    /**
+     * Gets the sequence of the last appended record.
+     * @return the sequence, 0 if there was none.
+     */
+    public synchronized long getLastSequence(){
+        return lastSequence;
+    }
+
+    /**
+     * Gets the sequence up to which every record is on disk.
+     * @return the durable sequence.
+     */
+    public synchronized long getDurableSequence(){
+        return durableSequence;
+    }
+
+    /**
+     * Gets the amount of records appended since opening.
+     * @return the append count.
+     */
+    public synchronized long getAppendCount(){
+        return appendCount;
+    }
+
+    /**
+     * Gets the amount of forces since opening, every one made a batch of records durable.
+     * @return the force count.
+     */
+    public synchronized long getForceCount(){
+        return forceCount;
+    }
+
+    /**
+     * Gets the amount of records replayed onto the items when opening.
+     * @return the replayed count.
+     */
+    public synchronized long getReplayedCount(){
+        return replayedCount;
+    }
+
+    /**
+     * Gets the amount of records that could not be replayed because their item was not found.
+     * @return the skipped count.
+     */
+    public synchronized long getSkippedCount(){
+        return skippedCount;
+    }
+
+    /**
+     * Gets the journal directory.
+     * @return the directory.
+     */
+    public Path getDirectory(){
+        return directory;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Gets the index of a journaled item.
+     * @param item the item.
+     * @return the index in the journaled list.
+     */
+    private int indexOf(Item item){
+        Integer itemIndex = itemIndexes.get(item);
+        if (itemIndex == null){
+            throw new IllegalArgumentException(item + " is not journaled");
+        }
+        return itemIndex;
+    }
+
+    /**
+     * Makes sure the next record can be written, starting the next segment if this one is full. Called while holding the lock.
+     * @throws IOException if the journal is closed or the next segment could not be made.
+     */
+    private void prepareRecord() throws IOException {
+        if (isClosed){
+            throw new IOException("The purchase journal in " + directory + " is closed");
+        }
+        if (position + RECORD_BYTES > SEGMENT_BYTES){
+            startSegment(lastSequence + 1);
+        }
+    }
+
+    /**
+     * Writes the record of a change that was just made. Called while holding the lock, after prepareRecord.
+     * @param type what changed.
+     * @param itemIndex the index of the item.
+     * @param item the item.
+     * @param value the amount bought, the new stock or the new price.
+     * @param purchasable if the item can be bought, for stock records.
+     * @return the sequence of the record.
+     */
+    private long writeNextRecord(RecordType type, int itemIndex, Item item, int value, boolean purchasable){
+        long sequence = ++lastSequence;
+        writeRecord(segment, position, sequence, System.currentTimeMillis(), type.ordinal(), itemIndex, item.toString().hashCode(), value, purchasable ? PURCHASABLE : 0);
+        position += RECORD_BYTES;
+        appendCount++;
+        return sequence;
+    }
+
+    /**
+     * Gives back the stock of a purchase that could not be made durable and journals the stock it ends up with.
+     * The purchase record can still reach the disk with the force of another buyer, the stock record after it overrides it on replay.
+     * @param item the item.
+     * @param itemIndex the index of the item.
+     * @param quantity the amount that was bought.
+     * @param failure the failure of the purchase, which gets the failures of the stock record added.
+     */
+    private void returnStock(Item item, int itemIndex, int quantity, IOException failure){
+        long sequence;
+        synchronized (this){ // Under the lock, so no other change to the item is journaled between giving back and recording it.
+            item.returnStock(quantity);
+            try {
+                prepareRecord();
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+                return;
+            }
+            sequence = writeNextRecord(RecordType.STOCK, itemIndex, item, item.getStock(), item.isPurchasable());
+        }
+        boolean wasInterrupted = Thread.interrupted(); // An interrupted buyer still has to wait for the stock record.
+        try {
+            commit(sequence);
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        } finally {
+            if (wasInterrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits until a sequence is durable, forcing the segment if no other buyer is.
+     * The buyer that forces takes every record appended until then along, the others wait for it and find theirs already durable.
+     * @param sequence the sequence.
+     * @throws IOException if the force failed or the wait was interrupted.
+     */
+    private void commit(long sequence) throws IOException {
+        MappedByteBuffer flushedSegment;
+        int from, to;
+        long flushedSequence;
+        synchronized (this){
+            while (durableSequence < sequence && isFlushing){ // Another buyer is forcing, it may cover this record too.
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for record " + sequence);
+                }
+            }
+            if (durableSequence >= sequence){
+                return;
+            }
+            isFlushing      = true;
+            flushedSegment  = segment;
+            from            = flushedPosition;
+            to              = position;
+            flushedSequence = lastSequence;
+        }
+        boolean isForced = false;
+        try {
+            flushedSegment.force(from, to - from); // Others keep appending meanwhile, they make up the next batch.
+            isForced = true;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            synchronized (this){
+                isFlushing = false;
+                if (isForced){
+                    durableSequence = Math.max(durableSequence, flushedSequence);
+                    if (segment == flushedSegment){ // A new segment starts out with nothing to force.
+                        flushedPosition = Math.max(flushedPosition, to);
+                    }
+                    forceCount++;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Forces the current segment and starts the next one. Called while holding the lock.
+     * @param firstSequence the sequence of the first record in the new segment.
+     * @throws IOException if the segment could not be made.
+     */
+    private void startSegment(long firstSequence) throws IOException {
+        if (segment != null){
+            segment.force(); // The old segment is done, every record in it is durable before moving on.
+        }
+        Path segmentPath = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+        segment = mapSegment(segmentPath, FileChannel.MapMode.READ_WRITE);
+        segment.putInt(0, SEGMENT_MAGIC);
+        segment.putInt(4, SEGMENT_VERSION);
+        segment.putInt(8, RECORD_BYTES);
+        segment.putLong(16, firstSequence);
+        segment.force(0, HEADER_BYTES);
+        position        = HEADER_BYTES;
+        flushedPosition = HEADER_BYTES;
+    }
+
+    /**
+     * Replays the records of every segment onto the items, then gets ready to append after the last one.
+     * @param afterSequence the last sequence already part of the item state.
+     * @throws IOException if a segment could not be read or the records right after afterSequence are missing.
+     */
+    private synchronized void replay(long afterSequence) throws IOException {
+        List<Path> segmentPaths = listSegments();
+        long expectedSequence = -1; // Unknown until the first segment is read.
+        for (int i = 0; i < segmentPaths.size(); i++){
+            Path segmentPath = segmentPaths.get(i);
+            MappedByteBuffer readSegment = mapSegment(segmentPath, FileChannel.MapMode.READ_WRITE);
+            long firstSequence = readSegment.getLong(16);
+            if (readSegment.getInt(0) != SEGMENT_MAGIC || readSegment.getInt(4) != SEGMENT_VERSION || readSegment.getInt(8) != RECORD_BYTES
+                    || (expectedSequence != -1 && firstSequence != expectedSequence)){
+                System.err.printf("JOURNAL ERROR: %s AND LATER SEGMENTS DROPPED (does not follow sequence %d)\n", segmentPath, expectedSequence - 1);
+                deleteSegments(segmentPaths.subList(i, segmentPaths.size()));
+                break;
+            }
+            if (expectedSequence == -1 && firstSequence > afterSequence + 1){ // The later records only make sense on top of the missing ones.
+                throw new IOException("Records " + (afterSequence + 1) + " to " + (firstSequence - 1) + " are missing from " + directory);
+            }
+            expectedSequence = firstSequence;
+            int recordPosition = HEADER_BYTES;
+            if (afterSequence >= firstSequence){ // The items already have the start of this segment, skip straight past it.
+                long coveredRecords = Math.min(afterSequence + 1 - firstSequence, SEGMENT_RECORDS);
+                recordPosition   += (int)coveredRecords * RECORD_BYTES;
+                expectedSequence += coveredRecords;
+            }
+            while (recordPosition + RECORD_BYTES <= SEGMENT_BYTES && isValidRecord(readSegment, recordPosition, expectedSequence)){
+                if (expectedSequence > afterSequence){
+                    applyRecord(readSegment, recordPosition);
+                }
+                expectedSequence++;
+                recordPosition += RECORD_BYTES;
+            }
+            segment         = readSegment; // Appends carry on in the last segment, after its last good record.
+            position        = recordPosition;
+            flushedPosition = recordPosition;
+        }
+        lastSequence    = Math.max(expectedSequence - 1, afterSequence);
+        durableSequence = lastSequence;
+        if (segment != null && lastSequence + 1 != expectedSequence){ // The stock it is given is newer than every record, none of them are needed.
+            segment = null;
+            deleteSegments(listSegments());
+        }
+        if (segment == null){ // Nothing journaled yet.
+            startSegment(lastSequence + 1);
+        }
+    }
+
+    /**
+     * Replays one record onto its item.
+     * @param readSegment the segment.
+     * @param recordPosition the start of the record.
+     */
+    private void applyRecord(MappedByteBuffer readSegment, int recordPosition){
+        RecordType type = RecordType.values()[readSegment.getInt(recordPosition + 16)];
+        int itemIndex   = readSegment.getInt(recordPosition + 20);
+        int itemKey     = readSegment.getInt(recordPosition + 24);
+        int value       = readSegment.getInt(recordPosition + 28);
+        if (itemIndex < 0 || itemIndex >= items.size() || items.get(itemIndex).toString().hashCode() != itemKey){
+            if (skippedCount++ < MAX_REPORTED_SKIPS){
+                System.err.printf("JOURNAL ERROR: RECORD %d SKIPPED (item %d is not in the catalog)\n", readSegment.getLong(recordPosition), itemIndex);
+            }
+            return;
+        }
+        Item item = items.get(itemIndex); // Nothing else touches the items while opening.
+        switch (type){
+            case PURCHASE: item.setStock(item.getStock() - value, item.isPurchasable()); break; // Same as Item.tryPurchase, which never makes an item purchasable.
+            case STOCK:    item.setStock(value, (readSegment.getInt(recordPosition + 32) & PURCHASABLE) != 0); break;
+            case PRICE:    item.setRobuxPrice(value); break;
+        }
+        replayedCount++;
+    }
+
+    /**
+     * Lists the segment files in sequence order.
+     * @return the segment files.
+     * @throws IOException if the directory could not be read.
+     */
+    private List<Path> listSegments() throws IOException {
+        ArrayList<Path> segmentPaths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)){
+            for (Path segmentPath : stream){
+                segmentPaths.add(segmentPath);
+            }
+        }
+        segmentPaths.sort(null); // The names hold the zero padded first sequence, so they sort in order.
+        return segmentPaths;
+    }
+
+    /**
+     * Gets the first sequence of a segment from its file name.
+     * @param segmentPath the segment file.
+     * @return the first sequence.
+     */
+    private static long firstSequenceOf(Path segmentPath){
+        String fileName = segmentPath.getFileName().toString();
+        return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Maps a segment file, making it at full size if it is missing and the mapping can write.
+     * @param segmentPath the segment file.
+     * @param mode READ_WRITE to append or READ_ONLY to read back.
+     * @return the mapping.
+     * @throws IOException if the file could not be mapped.
+     */
+    private static MappedByteBuffer mapSegment(Path segmentPath, FileChannel.MapMode mode) throws IOException {
+        StandardOpenOption[] options = mode == FileChannel.MapMode.READ_ONLY ? new StandardOpenOption[]{StandardOpenOption.READ}
+                : new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE};
+        try (FileChannel channel = FileChannel.open(segmentPath, options)){ // The mapping stays valid after the channel is closed.
+            return channel.map(mode, 0, SEGMENT_BYTES);
+        }
+    }
+
+    /**
+     * Deletes segments that can not be replayed, so their sequences are free to use again.
+     * @param segmentPaths the segment files.
+     * @throws IOException if a file could not be deleted.
+     */
+    private static void deleteSegments(List<Path> segmentPaths) throws IOException {
+        for (Path segmentPath : segmentPaths){
+            Files.deleteIfExists(segmentPath);
+        }
+    }
+
+    /**
+     * Writes a record.
+     * @param buffer the segment.
+     * @param recordPosition the start of the record.
+     * @param sequence the sequence.
+     * @param time the time in milliseconds.
+     * @param type the ordinal of the record type.
+     * @param itemIndex the index of the item.
+     * @param itemKey the hash of the item name.
+     * @param value the amount bought, the new stock or the new price.
+     * @param flags the flag bits.
+     */
+    private static void writeRecord(MappedByteBuffer buffer, int recordPosition, long sequence, long time, int type, int itemIndex, int itemKey, int value, int flags){
+        buffer.putLong(recordPosition, sequence);
+        buffer.putLong(recordPosition + 8, time);
+        buffer.putInt(recordPosition + 16, type);
+        buffer.putInt(recordPosition + 20, itemIndex);
+        buffer.putInt(recordPosition + 24, itemKey);
+        buffer.putInt(recordPosition + 28, value);
+        buffer.putInt(recordPosition + 32, flags);
+        buffer.putInt(recordPosition + 36, checksum(sequence, time, type, itemIndex, itemKey, value, flags));
+    }
+
+    /**
+     * Checks that a record is whole and is the one expected next.
+     * @param buffer the segment.
+     * @param recordPosition the start of the record.
+     * @param expectedSequence the sequence it should have.
+     * @return true if it can be replayed.
+     */
+    private static boolean isValidRecord(MappedByteBuffer buffer, int recordPosition, long expectedSequence){
+        long sequence = buffer.getLong(recordPosition);
+        int  type     = buffer.getInt(recordPosition + 16);
+        return sequence == expectedSequence && type >= 0 && type < RecordType.values().length
+                && buffer.getInt(recordPosition + 36) == checksum(sequence, buffer.getLong(recordPosition + 8), type, buffer.getInt(recordPosition + 20),
+                        buffer.getInt(recordPosition + 24), buffer.getInt(recordPosition + 28), buffer.getInt(recordPosition + 32));
+    }
+
+    /**
+     * Mixes the fields of a record into a checksum, so a record torn by a crash is not replayed.
+     * @param sequence the sequence.
+     * @param time the time in milliseconds.
+     * @param type the ordinal of the record type.
+     * @param itemIndex the index of the item.
+     * @param itemKey the hash of the item name.
+     * @param value the amount bought, the new stock or the new price.
+     * @param flags the flag bits.
+     * @return the checksum.
+     */
+    private static int checksum(long sequence, long time, int type, int itemIndex, int itemKey, int value, int flags){
+        long hash = sequence * 0x9E3779B97F4A7C15L;
+        hash = (hash ^ time) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ ((long)type << 32 | (itemIndex & 0xFFFFFFFFL))) * 0x94D049BB133111EBL;
+        hash = (hash ^ ((long)itemKey << 32 | (value & 0xFFFFFFFFL))) * 0x9E3779B97F4A7C15L;
+        hash = (hash ^ flags) * 0xBF58476D1CE4E5B9L;
+        return (int)(hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Constructor for the purchase journal.
+     * @param directory the journal directory, made if it is missing.
+     * @param items the journaled items.
+     * @throws IOException if the directory could not be made.
+     */
+    private PurchaseJournal(Path directory, List<Item> items) throws IOException {
+        this.directory = directory;
+        this.items     = new ArrayList<>(items);
+        for (int i = 0; i < this.items.size(); i++){
+            itemIndexes.putIfAbsent(this.items.get(i), i);
+        }
+        Files.createDirectories(directory);
+    }
+}
@@ -1,7 +1,13 @@
 import java.awt.*;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The Catalog Object For the Roblox Catalog.
@@ -11,7 +17,7 @@ public class RobloxCatalog extends Catalog {
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     //-- OBJECT VALUES
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
-    private Navigation featuredNavigation, gearNavigation, winterNavigation;
+    private Navigation featuredNavigation, gearNavigation, winterNavigation, importedNavigation;
     private Picture    navigationIcon;
 
 
@@ -156,6 +162,36 @@ public class RobloxCatalog extends Catalog {
         featuredCatalogItems.addAll(gearCatalogItems);
 
 
+        // Keep the purchases on disk, so the stock carries over between runs.
+        // Start up from the latest snapshot and replay only the changes after it.
+        final long SNAPSHOT_INTERVAL = 30_000;
+        try {
+            Path journalDirectory    = PurchaseJournal.getDefaultDirectory();
+            CatalogSnapshot snapshot = new CatalogSnapshot(journalDirectory, featuredCatalogItems);
+            PurchaseJournal journal  = PurchaseJournal.open(journalDirectory, featuredCatalogItems, snapshot.restoreLatest()); // Every purchase is forced to disk before it returns.
+            snapshot.start(journal, SNAPSHOT_INTERVAL);
+            setPurchaseJournal(journal);
+        } catch (IOException e) {
+            System.err.printf("JOURNAL ERROR: %s COULD NOT BE OPENED, PURCHASES ARE NOT SAVED (%s)\n", PurchaseJournal.getDefaultDirectory(), e);
+        }
+
+        // Keep the item pictures scaled on disk, at the widget and item page sizes.
+        final int WIDGET_PICTURE_LENGTH = 180, ITEM_PAGE_PICTURE_LENGTH = 250;
+        final int ATLAS_SHEETS          = 4; // Room for 484 widget pictures.
+        ImageCache imageCache = ImageCache.getShared();
+        ArrayList<String> itemPictureLocations = new ArrayList<>();
+        for (Item item : featuredCatalogItems){
+            itemPictureLocations.add(Picture.getLocation("itempictures", item.toString(), "png"));
+        }
+        if (Boolean.getBoolean("catalog.atlas")){ // Pack the widget pictures into shared sheets, loading them all up front.
+            imageCache.setAtlas(new ThumbnailAtlas(WIDGET_PICTURE_LENGTH, WIDGET_PICTURE_LENGTH, ATLAS_SHEETS));
+            imageCache.preloadIcons(itemPictureLocations, WIDGET_PICTURE_LENGTH, WIDGET_PICTURE_LENGTH);
+        }
+        ThumbnailCache thumbnailCache = imageCache.getThumbnailCache();
+        if (thumbnailCache != null){
+            thumbnailCache.rebuildLater(itemPictureLocations, new Dimension(WIDGET_PICTURE_LENGTH, WIDGET_PICTURE_LENGTH), new Dimension(ITEM_PAGE_PICTURE_LENGTH, ITEM_PAGE_PICTURE_LENGTH));
+        }
+
         // Set up the navigation buttons.
         featuredNavigation = new Navigation("Featured", new Font("Arial", Font.PLAIN, 24), PAGE_COLOR, NAVIGATION_ACTIVE_COLOR, NAVIGATION_INACTIVE_COLOR, new FeaturedPage(DEFAULT_PAGE_COLOR, "FEATURED",this, featuredCatalogItems));
         gearNavigation     = new Navigation("Gear", new Font("Arial", Font.PLAIN, 24), PAGE_COLOR, NAVIGATION_ACTIVE_COLOR, NAVIGATION_INACTIVE_COLOR, new SearchablePage(DEFAULT_PAGE_COLOR, "GEAR CATALOG",this,  gearCatalogItems));
@@ -164,11 +200,43 @@ public class RobloxCatalog extends Catalog {
         addToNavigationPanel(featuredNavigation, new Dimension(0, 5), true);
         addToNavigationPanel(gearNavigation, new Dimension(0, 5), false);
         addToNavigationPanel(winterNavigation,    new Dimension(0, 5), false);
-        addPage(gearNavigation.getPage());
-        addPage(featuredNavigation.getPage());
-        addPage(winterNavigation.getPage());
+
+        // Items from a feed file, given with -Dcatalog.import=file.csv or file.jsonl.
+        String importFileName = System.getProperty("catalog.import");
+        if (importFileName != null){
+            SearchablePage importedCatalog = new SearchablePage(DEFAULT_PAGE_COLOR, "IMPORTED CATALOG", this, new ArrayList<>());
+            importedNavigation = new Navigation("Imported", new Font("Arial", Font.PLAIN, 24), PAGE_COLOR, NAVIGATION_ACTIVE_COLOR, NAVIGATION_INACTIVE_COLOR, importedCatalog);
+            addToNavigationPanel(importedNavigation, new Dimension(0, 5), false);
+            startImport(Paths.get(importFileName), importedCatalog);
+        }
         setNavigationColor(NAVIGATION_INACTIVE_COLOR); // Set the navigation color.
     }
 
+    /**
+     * Streams the items of a feed file into a page on a background thread.
+     * The next batch is only read once the page has taken the previous one, so a large feed never piles up in memory.
+     * @param feedFile the CSV or JSON lines feed.
+     * @param importedPage the page that gets the items.
+     */
+    private void startImport(Path feedFile, SearchablePage importedPage){
+        final int IMPORT_BATCH_SIZE = 1000;
+        Thread importThread = new Thread(() -> {
+            CatalogImporter importer = new CatalogImporter(IMPORT_BATCH_SIZE);
+            AtomicReference<CompletableFuture<Void>> previousBatch = new AtomicReference<>(CompletableFuture.completedFuture(null));
+            try {
+                importer.importFile(feedFile, batch -> {
+                    previousBatch.get().join(); // Wait for the page to catch up.
+                    previousBatch.set(importedPage.addItems(batch));
+                });
+                previousBatch.get().join();
+                System.out.printf("IMPORTED %s: %s\n", feedFile, importer.getReport());
+            } catch (IOException | CompletionException e) {
+                System.err.printf("IMPORT ERROR: %s COULD NOT BE IMPORTED (%s)\n", feedFile, e);
+            }
+        }, "catalog import");
+        importThread.setDaemon(true); // Do not keep the application alive.
+        importThread.start();
+    }
+
 
 }
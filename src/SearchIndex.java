@@ -0,0 +1,369 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Holds the normalized names and tags of the searchable items.
+ * Every string is normalized once when its item is added and packed into one shared character array,
+ * so a search only reads precomputed data.
+ * Optionally keeps an inverted index from every character to the strings holding it, see getPostings.
+ */
+public class SearchIndex {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int TABLE_SIZE       = 128; // Characters below this get a direct table lookup.
+    private static final int MAX_COUNT        = 255; // Counts are saturated to fit in a byte.
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private boolean         shouldIncludeWhiteSpace;
+    private ArrayList<Item> items            = new ArrayList<>();
+    private char[]          indexChars       = new char[INITIAL_CAPACITY * 8]; // Every normalized string back to back.
+    private int             charCount;
+    private int[]           stringStarts     = new int[INITIAL_CAPACITY + 1];  // Where each string starts, the last entry is the end.
+    private int[]           stringItems      = new int[INITIAL_CAPACITY];      // The item that owns each string.
+    private int             stringCount;
+    private int[]           itemStringStarts = new int[INITIAL_CAPACITY + 1];  // The first string of each item, which is always its name.
+    private boolean         shouldIndexCharacters;
+    private Postings[]      tablePostings    = new Postings[TABLE_SIZE];
+    private HashMap<Character, Postings> extendedPostings = new HashMap<>();
+
+    /**
+     * The strings holding one character, in the order they were added.
+     */
+    public static class Postings {
+        private int[]  strings = new int[INITIAL_CAPACITY];
+        private byte[] counts  = new byte[INITIAL_CAPACITY]; // How often the character shows up in the string.
+        private long[] masks   = new long[INITIAL_CAPACITY]; // Where the character shows up in the first 64 characters of the string.
+        private int    size;
+
+        /**
+         * Gets the amount of strings holding the character.
+         * @return the posting count.
+         */
+        public int size(){
+            return size;
+        }
+
+        /**
+         * Gets a string holding the character.
+         * @param position the position in the postings.
+         * @return the index of the string.
+         */
+        public int getString(int position){
+            return strings[position];
+        }
+
+        /**
+         * Gets how often the character shows up in a string.
+         * @param position the position in the postings.
+         * @return the count, or Integer.MAX_VALUE if it was too large to store.
+         */
+        public int getCount(int position){
+            int count = counts[position] & 0xFF;
+            return count == MAX_COUNT ? Integer.MAX_VALUE : count;
+        }
+
+        /**
+         * Gets where the character shows up in the first 64 characters of a string.
+         * @param position the position in the postings.
+         * @return a mask with bit i set if character i of the string is the character.
+         */
+        public long getMask(int position){
+            return masks[position];
+        }
+
+        /**
+         * Adds a string to the postings.
+         * @param stringIndex the index of the string.
+         * @param count how often the character shows up.
+         * @param mask where the character shows up in the first 64 characters.
+         */
+        private void add(int stringIndex, int count, long mask){
+            if (size == strings.length){
+                strings = Arrays.copyOf(strings, size * 2);
+                counts  = Arrays.copyOf(counts, size * 2);
+                masks   = Arrays.copyOf(masks, size * 2);
+            }
+            strings[size] = stringIndex;
+            counts[size]  = (byte)Math.min(count, MAX_COUNT);
+            masks[size]   = mask;
+            size++;
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Normalizes a string the way the index stores it.
+     * @param text the string.
+     * @param shouldIncludeWhiteSpace false if the whitespace should be stripped.
+     * @return the normalized string.
+     */
+    public static String normalize(String text, boolean shouldIncludeWhiteSpace){
+        if (!shouldIncludeWhiteSpace){
+            text = stripWhiteSpace(text);
+        }
+        return text.toLowerCase(); // Keep all the strings lowercase for accurate matching.
+    }
+
+    /**
+     * Strips the whitespace out of a string.
+     * Strips the same characters as the \s regex class without compiling a pattern.
+     * @param text the string.
+     * @return the string without whitespace.
+     */
+    public static String stripWhiteSpace(String text){
+        StringBuilder stripped = null;
+        for (int i = 0; i < text.length(); i++){
+            char character = text.charAt(i);
+            if (isWhiteSpace(character)){
+                if (stripped == null){ // Only copy once there is something to strip.
+                    stripped = new StringBuilder(text.length());
+                    stripped.append(text, 0, i);
+                }
+            }else if (stripped != null){
+                stripped.append(character);
+            }
+        }
+        return stripped == null ? text : stripped.toString();
+    }
+
+    /**
+     * Adds an item to the index.
+     * @param item the item.
+     * @return the index of the item.
+     */
+    public int addItem(Item item){
+        int itemIndex = items.size();
+        items.add(item);
+        String[] itemTags = item.getItemTags(); // Read the tags once here instead of on every search.
+        ensureStringCapacity(stringCount + itemTags.length + 1);
+        if (itemStringStarts.length < itemIndex + 2){
+            itemStringStarts = Arrays.copyOf(itemStringStarts, itemStringStarts.length * 2);
+        }
+        itemStringStarts[itemIndex] = stringCount;
+        addString(itemIndex, item.toString()); // The name goes first.
+        for (String itemTag : itemTags){
+            addString(itemIndex, itemTag);
+        }
+        itemStringStarts[itemIndex + 1] = stringCount;
+        return itemIndex;
+    }
+
+    /**
+     * Checks if the index keeps the character postings.
+     * @return true if it does, false otherwise.
+     */
+    public boolean isIndexingCharacters(){
+        return shouldIndexCharacters;
+    }
+
+    /**
+     * Gets the strings holding a character.
+     * @param character the character.
+     * @return the postings, or null if no string holds the character or characters are not indexed.
+     */
+    public Postings getPostings(char character){
+        if (character < TABLE_SIZE){
+            return tablePostings[character];
+        }
+        return extendedPostings.get(character);
+    }
+
+    /**
+     * Gets the amount of items in the index.
+     * @return the item count.
+     */
+    public int getItemCount(){
+        return items.size();
+    }
+
+    /**
+     * Gets an item in the index.
+     * @param itemIndex the index of the item.
+     * @return the item object.
+     */
+    public Item getItem(int itemIndex){
+        return items.get(itemIndex);
+    }
+
+    /**
+     * Gets the first string of an item, which is the item's name.
+     * @param itemIndex the index of the item.
+     * @return the index of the first string.
+     */
+    public int getItemStringStart(int itemIndex){
+        return itemStringStarts[itemIndex];
+    }
+
+    /**
+     * Gets the end of the strings of an item.
+     * @param itemIndex the index of the item.
+     * @return the index after the last string of the item.
+     */
+    public int getItemStringEnd(int itemIndex){
+        return itemStringStarts[itemIndex + 1];
+    }
+
+    /**
+     * Gets the amount of strings in the index.
+     * @return the string count.
+     */
+    public int getStringCount(){
+        return stringCount;
+    }
+
+    /**
+     * Gets the item that owns a string.
+     * @param stringIndex the index of the string.
+     * @return the index of the item.
+     */
+    public int getStringItem(int stringIndex){
+        return stringItems[stringIndex];
+    }
+
+    /**
+     * Checks if a string is a tag rather than an item name.
+     * @param stringIndex the index of the string.
+     * @return true if it is a tag, false otherwise.
+     */
+    public boolean isTag(int stringIndex){
+        return itemStringStarts[stringItems[stringIndex]] != stringIndex;
+    }
+
+    /**
+     * Gets where a string starts in the character array.
+     * @param stringIndex the index of the string.
+     * @return the index of the first character.
+     */
+    public int getStringStart(int stringIndex){
+        return stringStarts[stringIndex];
+    }
+
+    /**
+     * Gets where a string ends in the character array.
+     * @param stringIndex the index of the string.
+     * @return the index after the last character.
+     */
+    public int getStringEnd(int stringIndex){
+        return stringStarts[stringIndex + 1];
+    }
+
+    /**
+     * Gets the character array holding every string.
+     * The array is shared and must not be changed, it is replaced once the index grows.
+     * @return the character array.
+     */
+    public char[] getChars(){
+        return indexChars;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Checks if a character is whitespace in the same way as the \s regex class.
+     * @param character the character.
+     * @return true if it is whitespace, false otherwise.
+     */
+    private static boolean isWhiteSpace(char character){
+        return character == ' ' || character == '\t' || character == '\n' || character == '\u000B' || character == '\f' || character == '\r';
+    }
+
+    /**
+     * Normalizes and appends a string of an item.
+     * @param itemIndex the index of the owning item.
+     * @param text the string.
+     */
+    private void addString(int itemIndex, String text){
+        String normalized = normalize(text, shouldIncludeWhiteSpace);
+        if (indexChars.length < charCount + normalized.length()){ // Grow the character array.
+            indexChars = Arrays.copyOf(indexChars, Math.max(indexChars.length * 2, charCount + normalized.length()));
+        }
+        normalized.getChars(0, normalized.length(), indexChars, charCount);
+        stringItems[stringCount]  = itemIndex;
+        stringStarts[stringCount] = charCount;
+        charCount                += normalized.length();
+        stringCount++;
+        stringStarts[stringCount] = charCount;
+        if (shouldIndexCharacters){
+            indexCharacters(stringCount - 1);
+        }
+    }
+
+    /**
+     * Adds a string to the postings of every character it holds.
+     * @param stringIndex the index of the string.
+     */
+    private void indexCharacters(int stringIndex){
+        int start = stringStarts[stringIndex];
+        int end   = stringStarts[stringIndex + 1];
+        for (int i = start; i < end; i++){
+            char character = indexChars[i];
+            boolean isFirst = true;
+            for (int j = start; j < i; j++){ // Names and tags are short, so look back instead of keeping a set.
+                if (indexChars[j] == character){
+                    isFirst = false;
+                    break;
+                }
+            }
+            if (!isFirst){ // This character was already counted.
+                continue;
+            }
+            int  count = 0;
+            long mask  = 0;
+            for (int j = i; j < end; j++){
+                if (indexChars[j] == character){
+                    count++;
+                    if (j - start < 64){
+                        mask |= 1L << (j - start);
+                    }
+                }
+            }
+            Postings postings = getPostings(character);
+            if (postings == null){ // First string with this character.
+                postings = new Postings();
+                if (character < TABLE_SIZE){
+                    tablePostings[character] = postings;
+                }else{
+                    extendedPostings.put(character, postings);
+                }
+            }
+            postings.add(stringIndex, count, mask);
+        }
+    }
+
+    /**
+     * Makes sure the string arrays can hold a number of strings.
+     * @param capacity the number of strings.
+     */
+    private void ensureStringCapacity(int capacity){
+        if (stringItems.length < capacity){
+            int newCapacity = Math.max(stringItems.length * 2, capacity);
+            stringItems     = Arrays.copyOf(stringItems, newCapacity);
+            stringStarts    = Arrays.copyOf(stringStarts, newCapacity + 1);
+        }
+    }
+
+    /**
+     * Constructor for the search index.
+     * @param shouldIncludeWhiteSpace false if the whitespace should be stripped from the strings.
+     */
+    public SearchIndex(boolean shouldIncludeWhiteSpace){
+        this(shouldIncludeWhiteSpace, false);
+    }
+
+    /**
+     * Constructor for the search index.
+     * @param shouldIncludeWhiteSpace false if the whitespace should be stripped from the strings.
+     * @param shouldIndexCharacters true if the character postings should be kept.
+     */
+    public SearchIndex(boolean shouldIncludeWhiteSpace, boolean shouldIndexCharacters){
+        this.shouldIncludeWhiteSpace = shouldIncludeWhiteSpace;
+        this.shouldIndexCharacters   = shouldIndexCharacters;
+    }
+}
@@ -0,0 +1,168 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the ranked results of recent queries within a memory budget.
+ * The least recently used query is evicted first once the budget is used up.
+ */
+public class SearchResultCache {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final int ENTRY_OVERHEAD = 96; // Rough size of the map node, the entry and the array headers.
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // Access order, so the eldest is the least recently used.
+    private long budgetBytes, usedBytes;
+    private long hitCount, missCount, evictionCount;
+
+    /**
+     * The cached results of one query.
+     */
+    private static class Entry {
+        private int[] items;  // The item indexes, best first.
+        private int   limit;  // The limit the results were ranked with.
+        private long  bytes;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Gets the cached results of a query.
+     * Results ranked with a larger limit, or which had fewer matches than their limit, also answer a smaller limit.
+     * @param query the normalized query.
+     * @param limit the maximum amount of results needed.
+     * @return the item indexes best first, which may be more than the limit, or null if they are not cached.
+     */
+    public int[] get(String query, int limit){
+        Entry entry = entries.get(query);
+        if (entry == null || (entry.limit < limit && entry.items.length >= entry.limit)){ // Missing or ranked with too few results.
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.items;
+    }
+
+    /**
+     * Caches the results of a query.
+     * @param query the normalized query.
+     * @param limit the limit the results were ranked with.
+     * @param items the item indexes, best first. The array is kept so it must not be changed afterwards.
+     */
+    public void put(String query, int limit, int[] items){
+        remove(query);
+        Entry entry = new Entry();
+        entry.items = items;
+        entry.limit = limit;
+        entry.bytes = ENTRY_OVERHEAD + 2L * query.length() + 4L * items.length;
+        if (entry.bytes > budgetBytes){ // Would push everything else out, so do not cache it.
+            return;
+        }
+        entries.put(query, entry);
+        usedBytes += entry.bytes;
+        evictToBudget();
+    }
+
+    /**
+     * Removes the results of a query because they are no longer correct.
+     * @param query the normalized query.
+     */
+    public void remove(String query){
+        Entry entry = entries.remove(query);
+        if (entry != null){
+            usedBytes -= entry.bytes;
+        }
+    }
+
+    /**
+     * Removes every cached result.
+     */
+    public void clear(){
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * Sets the memory budget, evicting results until they fit.
+     * @param budgetBytes the budget in bytes, 0 turns the cache off.
+     */
+    public void setBudget(long budgetBytes){
+        this.budgetBytes = Math.max(0, budgetBytes);
+        evictToBudget();
+    }
+
+    /**
+     * Gets the memory budget.
+     * @return the budget in bytes.
+     */
+    public long getBudget(){
+        return budgetBytes;
+    }
+
+    /**
+     * Gets the estimated memory used by the cached results.
+     * @return the used bytes.
+     */
+    public long getUsedBytes(){
+        return usedBytes;
+    }
+
+    /**
+     * Gets the amount of cached queries.
+     * @return the query count.
+     */
+    public int size(){
+        return entries.size();
+    }
+
+    /**
+     * Gets how many lookups were answered from the cache.
+     * @return the hit count.
+     */
+    public long getHitCount(){
+        return hitCount;
+    }
+
+    /**
+     * Gets how many lookups were not answered from the cache.
+     * @return the miss count.
+     */
+    public long getMissCount(){
+        return missCount;
+    }
+
+    /**
+     * Gets how many results were evicted to stay within the budget.
+     * @return the eviction count.
+     */
+    public long getEvictionCount(){
+        return evictionCount;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Evicts the least recently used results until the rest fits in the budget.
+     */
+    private void evictToBudget(){
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (usedBytes > budgetBytes && iterator.hasNext()){
+            usedBytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Constructor for the search result cache.
+     * @param budgetBytes the memory budget in bytes, 0 turns the cache off.
+     */
+    public SearchResultCache(long budgetBytes){
+        this.budgetBytes = Math.max(0, budgetBytes);
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the best search results up to a fixed amount.
+ * Works on primitive (rating, item index) pairs so ratings are never boxed.
+ * Higher ratings rank first and equal ratings keep the item order.
+ */
+public class SearchResultHeap {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private double[] ratings;
+    private int[]    items;
+    private int      size;
+    private int      limit;
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Empties the heap and sets how many results it keeps.
+     * @param limit the maximum amount of results.
+     * @param expectedSize how many results may be offered, used to avoid growing past what is needed.
+     */
+    public void reset(int limit, int expectedSize){
+        this.limit = limit;
+        this.size  = 0;
+        int capacity = Math.max(1, Math.min(limit, expectedSize));
+        if (ratings.length < capacity){
+            ratings = new double[capacity];
+            items   = new int[capacity];
+        }
+    }
+
+    /**
+     * Offers a result to the heap.
+     * @param rating the rating of the item.
+     * @param itemIndex the index of the item.
+     */
+    public void offer(double rating, int itemIndex){
+        if (size < limit){
+            if (size == ratings.length){ // More results than expected.
+                ratings = Arrays.copyOf(ratings, size * 2);
+                items   = Arrays.copyOf(items, size * 2);
+            }
+            ratings[size] = rating;
+            items[size]   = itemIndex;
+            siftUp(size++);
+        }else if (limit > 0 && isWorse(ratings[0], items[0], rating, itemIndex)){ // Better than the worst result we kept.
+            ratings[0] = rating;
+            items[0]   = itemIndex;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Offers every result of another heap to this heap.
+     * @param other the other heap.
+     */
+    public void offerAll(SearchResultHeap other){
+        for (int i = 0; i < other.size; i++){
+            offer(other.ratings[i], other.items[i]);
+        }
+    }
+
+    /**
+     * Gets the amount of results in the heap.
+     * @return the result count.
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Removes every result from the heap in rank order.
+     * @param itemsOut the array receiving the item indexes, best first. Must hold at least size() values.
+     * @return the amount of results written.
+     */
+    public int drainInOrder(int[] itemsOut){
+        int count = size;
+        while (size > 0){ // The root is always the worst result left, so fill from the back.
+            itemsOut[size - 1] = items[0];
+            size--;
+            ratings[0] = ratings[size];
+            items[0]   = items[size];
+            siftDown(0);
+        }
+        return count;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Checks if the first result ranks below the second one.
+     * @param rating the first rating.
+     * @param itemIndex the first item index.
+     * @param otherRating the second rating.
+     * @param otherItemIndex the second item index.
+     * @return true if the first result is worse, false otherwise.
+     */
+    private static boolean isWorse(double rating, int itemIndex, double otherRating, int otherItemIndex){
+        return rating < otherRating || (rating == otherRating && itemIndex > otherItemIndex);
+    }
+
+    /**
+     * Moves a result up until its parent is worse.
+     * @param position the position of the result.
+     */
+    private void siftUp(int position){
+        double rating    = ratings[position];
+        int    itemIndex = items[position];
+        while (position > 0){
+            int parent = (position - 1) >>> 1;
+            if (!isWorse(rating, itemIndex, ratings[parent], items[parent])){
+                break;
+            }
+            ratings[position] = ratings[parent];
+            items[position]   = items[parent];
+            position          = parent;
+        }
+        ratings[position] = rating;
+        items[position]   = itemIndex;
+    }
+
+    /**
+     * Moves a result down until its children are better.
+     * @param position the position of the result.
+     */
+    private void siftDown(int position){
+        double rating    = ratings[position];
+        int    itemIndex = items[position];
+        int    half      = size >>> 1;
+        while (position < half){
+            int child = 2 * position + 1;
+            int right = child + 1;
+            if (right < size && isWorse(ratings[right], items[right], ratings[child], items[child])){ // Pick the worse child.
+                child = right;
+            }
+            if (!isWorse(ratings[child], items[child], rating, itemIndex)){
+                break;
+            }
+            ratings[position] = ratings[child];
+            items[position]   = items[child];
+            position          = child;
+        }
+        ratings[position] = rating;
+        items[position]   = itemIndex;
+    }
+
+    /**
+     * Constructor for the search result heap.
+     * @param limit the maximum amount of results.
+     */
+    public SearchResultHeap(int limit){
+        int capacity = Math.max(1, Math.min(limit, 16));
+        this.ratings = new double[capacity];
+        this.items   = new int[capacity];
+        this.limit   = limit;
+    }
+}
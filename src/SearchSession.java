@@ -0,0 +1,394 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+// Search as you type.
+// Every name and tag keeps its own bit-parallel LCS state with the string as the pattern and the query as the text
+// (see BitParallelLCS for the algorithm). Typing a character is then one more step of that state: strings without the
+// character keep their state as is, and an item can only start matching if one of its strings holds the new character,
+// so the previous matches plus the items holding the character are the only candidates.
+// Every step remembers the states it changed so a backspace undoes it and returns the cached results.
+// An interrupted search stops at the next check and rolls back the step it was in, so the session stays usable.
+
+/**
+ * Searches through a fuzzy search object while the query is typed one character at a time.
+ */
+public class SearchSession {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final int WORD_SIZE      = 64;
+    private static final int CHECK_INTERVAL = 4096; // How many strings are advanced between interrupt checks.
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private FuzzySearch      fuzzySearch;
+    private SearchIndex      searchIndex;
+    private int              limit;
+    private int              indexedStrings;   // How many strings of the index the states cover.
+    private int[]            stateStarts;      // Where the state words of each string start, the last entry is the end.
+    private long[]           states;
+    private StringBuilder    appliedQuery = new StringBuilder(); // The characters the states went through.
+    private ArrayList<Step>  steps        = new ArrayList<>();   // One step per applied character, plus the empty query.
+    private int[]            undoStrings  = new int[64];         // The strings each step changed.
+    private long[]           undoWords    = new long[64];        // The state words of those strings before the step.
+    private int              undoStringCount, undoWordCount;
+    private boolean[]        isCandidateItem = new boolean[0];
+    private int[]            candidateItems  = new int[0];
+    private SearchResultHeap resultHeap;
+    private int[]            resultItems     = new int[0];
+    private long[]           updatedWords    = new long[0]; // Scratch space for advancing multi-word states.
+
+    /**
+     * The state of the session after one character.
+     */
+    private static class Step {
+        private int             undoStringStart, undoWordStart;
+        private int[]           matchedItems;   // In item order.
+        private double[]        matchedRatings;
+        private int             matchedCount;
+        private ArrayList<Item> results;        // Filled the first time the results are asked for.
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Gets the results for the query, reusing the work of the previous query.
+     * The results are the same as FuzzySearch.getSearchResults with the session's limit.
+     * @param query the query.
+     * @return An array list of item objects, best first.
+     * @throws CancellationException if the thread was interrupted during the search.
+     */
+    public ArrayList<Item> search(String query){
+        query = fuzzySearch.normalizeQuery(query);
+        if (indexedStrings != searchIndex.getStringCount()){ // Items were added so the states no longer cover the index.
+            rebuild();
+        }
+        int commonLength = 0;
+        int maxCommon    = Math.min(query.length(), appliedQuery.length());
+        while (commonLength < maxCommon && query.charAt(commonLength) == appliedQuery.charAt(commonLength)){
+            commonLength++;
+        }
+        while (appliedQuery.length() > commonLength){ // Backspaces and edits in the middle undo the steps after them.
+            undoStep();
+        }
+        for (int i = commonLength; i < query.length(); i++){
+            applyStep(query.charAt(i));
+        }
+        return getResults(steps.get(steps.size() - 1));
+    }
+
+    /**
+     * Gets the query the session is currently at.
+     * @return the normalized query.
+     */
+    public String getQuery(){
+        return appliedQuery.toString();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Resets every state to the empty query.
+     */
+    private void rebuild(){
+        indexedStrings = searchIndex.getStringCount();
+        stateStarts    = new int[indexedStrings + 1];
+        for (int stringIndex = 0; stringIndex < indexedStrings; stringIndex++){
+            int stringLength = searchIndex.getStringEnd(stringIndex) - searchIndex.getStringStart(stringIndex);
+            stateStarts[stringIndex + 1] = stateStarts[stringIndex] + (stringLength + WORD_SIZE - 1) / WORD_SIZE;
+        }
+        states = new long[stateStarts[indexedStrings]];
+        Arrays.fill(states, -1L); // No character of any string is matched yet.
+        isCandidateItem = new boolean[searchIndex.getItemCount()];
+        candidateItems  = new int[searchIndex.getItemCount()];
+        appliedQuery.setLength(0);
+        steps.clear();
+        undoStringCount = 0;
+        undoWordCount   = 0;
+        Step emptyStep  = new Step(); // Nothing matches the empty query.
+        emptyStep.matchedItems   = new int[0];
+        emptyStep.matchedRatings = new double[0];
+        steps.add(emptyStep);
+    }
+
+    /**
+     * Moves every state one character further and finds the new matches.
+     * @param queryChar the typed character.
+     */
+    private void applyStep(char queryChar){
+        Step step = new Step();
+        step.undoStringStart = undoStringCount;
+        step.undoWordStart   = undoWordCount;
+        Step previousStep    = steps.get(steps.size() - 1);
+        int  queryLength     = appliedQuery.length() + 1;
+        for (int i = 0; i < previousStep.matchedCount; i++){ // Previous matches are rated again anyway.
+            isCandidateItem[previousStep.matchedItems[i]] = true;
+        }
+        int newCount = 0; // Items which did not match before, at the start of candidateItems.
+        SearchIndex.Postings postings = searchIndex.getPostings(queryChar);
+        if (postings != null){ // Only the strings holding the character change.
+            for (int position = 0; position < postings.size(); position++){
+                checkInterrupted(position, step, previousStep, newCount);
+                int stringIndex = postings.getString(position);
+                if (advanceString(stringIndex, queryChar, postings.getMask(position))){
+                    newCount = addNewCandidate(stringIndex, queryLength, newCount);
+                }
+            }
+        }else if (!searchIndex.isIndexingCharacters()){ // Without postings every string has to be looked at.
+            for (int stringIndex = 0; stringIndex < indexedStrings; stringIndex++){
+                checkInterrupted(stringIndex, step, previousStep, newCount);
+                long firstMask = getMask(stringIndex, queryChar, 0);
+                if (firstMask != 0 || stateStarts[stringIndex + 1] - stateStarts[stringIndex] > 1){
+                    if (advanceString(stringIndex, queryChar, firstMask)){
+                        newCount = addNewCandidate(stringIndex, queryLength, newCount);
+                    }
+                }
+            }
+        }
+        appliedQuery.append(queryChar);
+        Arrays.sort(candidateItems, 0, newCount);
+        int   previousCount = previousStep.matchedCount;
+        int[] previousItems = previousStep.matchedItems;
+        step.matchedItems   = new int[previousCount + newCount];
+        step.matchedRatings = new double[previousCount + newCount];
+        int previousPosition = 0, newPosition = 0;
+        while (previousPosition < previousCount || newPosition < newCount){ // Merge both sorted lists so ties rank like a full search.
+            int itemIndex;
+            if (newPosition == newCount || (previousPosition < previousCount && previousItems[previousPosition] < candidateItems[newPosition])){
+                itemIndex = previousItems[previousPosition++];
+            }else{
+                itemIndex = candidateItems[newPosition++];
+            }
+            isCandidateItem[itemIndex] = false;
+            double rating = getItemRating(itemIndex);
+            if (rating >= fuzzySearch.getBaseSearchValue()){
+                step.matchedItems[step.matchedCount]   = itemIndex;
+                step.matchedRatings[step.matchedCount] = rating;
+                step.matchedCount++;
+            }
+        }
+        steps.add(step);
+    }
+
+    /**
+     * Adds the item of an advanced string to the new candidates if that string now passes on its own.
+     * An item that did not match before can only match now through a string which changed.
+     * @param stringIndex the index of the advanced string.
+     * @param queryLength the length of the query including the new character.
+     * @param newCount the current amount of new candidates.
+     * @return the new amount of new candidates.
+     */
+    private int addNewCandidate(int stringIndex, int queryLength, int newCount){
+        int itemIndex = searchIndex.getStringItem(stringIndex);
+        if (isCandidateItem[itemIndex]){ // Already a candidate.
+            return newCount;
+        }
+        if (fuzzySearch.getSearchRating(getCommonLength(stringIndex), queryLength, searchIndex.isTag(stringIndex)) < fuzzySearch.getBaseSearchValue()){
+            return newCount;
+        }
+        isCandidateItem[itemIndex] = true;
+        candidateItems[newCount]   = itemIndex;
+        return newCount + 1;
+    }
+
+    /**
+     * Stops a step if the thread was interrupted, rolling back the strings the step already advanced.
+     * @param progress how many strings the step went through, the check only runs every CHECK_INTERVAL strings.
+     * @param step the step in progress.
+     * @param previousStep the step before it.
+     * @param newCount the amount of new candidates the step collected.
+     */
+    private void checkInterrupted(int progress, Step step, Step previousStep, int newCount){
+        if (progress % CHECK_INTERVAL == 0 && Thread.currentThread().isInterrupted()){
+            restoreStates(step);
+            for (int i = 0; i < previousStep.matchedCount; i++){
+                isCandidateItem[previousStep.matchedItems[i]] = false;
+            }
+            for (int i = 0; i < newCount; i++){
+                isCandidateItem[candidateItems[i]] = false;
+            }
+            throw new CancellationException("Search interrupted");
+        }
+    }
+
+    /**
+     * Undoes the last step, putting back the states it changed.
+     */
+    private void undoStep(){
+        Step step = steps.remove(steps.size() - 1);
+        restoreStates(step);
+        appliedQuery.setLength(appliedQuery.length() - 1);
+    }
+
+    /**
+     * Puts back the states a step changed.
+     * @param step the step.
+     */
+    private void restoreStates(Step step){
+        int wordPosition = step.undoWordStart;
+        for (int i = step.undoStringStart; i < undoStringCount; i++){
+            int stringIndex = undoStrings[i];
+            int wordCount   = stateStarts[stringIndex + 1] - stateStarts[stringIndex];
+            System.arraycopy(undoWords, wordPosition, states, stateStarts[stringIndex], wordCount);
+            wordPosition += wordCount;
+        }
+        undoStringCount = step.undoStringStart;
+        undoWordCount   = step.undoWordStart;
+    }
+
+    /**
+     * Moves the state of a string one character further, remembering the old state for undo if it changed.
+     * @param stringIndex the index of the string.
+     * @param queryChar the typed character.
+     * @param firstMask where the character shows up in the first word of the string.
+     * @return true if the state changed, false otherwise.
+     */
+    private boolean advanceString(int stringIndex, char queryChar, long firstMask){
+        int stateStart = stateStarts[stringIndex];
+        int wordCount  = stateStarts[stringIndex + 1] - stateStart;
+        if (wordCount == 1){ // Most names and tags fit in one word.
+            long vector  = states[stateStart];
+            long kept    = vector & firstMask;
+            long updated = (vector + kept) | (vector - kept);
+            if (updated == vector){
+                return false;
+            }
+            recordUndo(stringIndex, stateStart, 1);
+            states[stateStart] = updated;
+            return true;
+        }
+        if (updatedWords.length < wordCount){
+            updatedWords = new long[wordCount];
+        }
+        boolean isChanged = false;
+        long    carry     = 0;
+        for (int word = 0; word < wordCount; word++){
+            long vector  = states[stateStart + word];
+            long matches = word == 0 ? firstMask : getMask(stringIndex, queryChar, word);
+            long kept    = vector & matches;
+            long sum     = vector + kept + carry;
+            carry        = ((vector & kept) | ((vector | kept) & ~sum)) >>> 63; // Carry out of the top bit.
+            updatedWords[word] = sum | (vector & ~matches);
+            isChanged   |= updatedWords[word] != vector;
+        }
+        if (isChanged){
+            recordUndo(stringIndex, stateStart, wordCount);
+            System.arraycopy(updatedWords, 0, states, stateStart, wordCount);
+        }
+        return isChanged;
+    }
+
+    /**
+     * Remembers the state of a string before the current step changes it.
+     * @param stringIndex the index of the string.
+     * @param stateStart where the state words of the string start.
+     * @param wordCount how many state words the string has.
+     */
+    private void recordUndo(int stringIndex, int stateStart, int wordCount){
+        if (undoStringCount == undoStrings.length){
+            undoStrings = Arrays.copyOf(undoStrings, undoStringCount * 2);
+        }
+        if (undoWords.length < undoWordCount + wordCount){
+            undoWords = Arrays.copyOf(undoWords, Math.max(undoWords.length * 2, undoWordCount + wordCount));
+        }
+        undoStrings[undoStringCount++] = stringIndex;
+        for (int word = 0; word < wordCount; word++){
+            undoWords[undoWordCount++] = states[stateStart + word];
+        }
+    }
+
+    /**
+     * Gets where a character shows up in one word of a string.
+     * @param stringIndex the index of the string.
+     * @param queryChar the character.
+     * @param word the word index.
+     * @return a mask with bit i set if character word * 64 + i of the string is the character.
+     */
+    private long getMask(int stringIndex, char queryChar, int word){
+        char[] indexChars = searchIndex.getChars();
+        int start = searchIndex.getStringStart(stringIndex) + word * WORD_SIZE;
+        int end   = Math.min(start + WORD_SIZE, searchIndex.getStringEnd(stringIndex));
+        long mask = 0;
+        for (int i = start; i < end; i++){
+            if (indexChars[i] == queryChar){
+                mask |= 1L << (i - start);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Gets the longest common subsequence of a string and the applied query from its state.
+     * @param stringIndex the index of the string.
+     * @return the longest common subsequence length.
+     */
+    private int getCommonLength(int stringIndex){
+        int stringLength = searchIndex.getStringEnd(stringIndex) - searchIndex.getStringStart(stringIndex);
+        int stateStart   = stateStarts[stringIndex];
+        int wordCount    = stateStarts[stringIndex + 1] - stateStart;
+        int unmatched    = 0;
+        for (int word = 0; word < wordCount; word++){
+            long vector = states[stateStart + word];
+            int  bits   = Math.min(WORD_SIZE, stringLength - word * WORD_SIZE);
+            if (bits < WORD_SIZE){ // Ignore the bits past the end of the string.
+                vector &= (1L << bits) - 1;
+            }
+            unmatched += Long.bitCount(vector);
+        }
+        return stringLength - unmatched;
+    }
+
+    /**
+     * Gets the best rating of an item over its name and tags for the applied query.
+     * @param itemIndex the index of the item.
+     * @return the best rating.
+     */
+    private double getItemRating(int itemIndex){
+        double bestRating = -10000; // Keep the rating as a very low number for comparisons.
+        int stringEnd     = searchIndex.getItemStringEnd(itemIndex);
+        for (int stringIndex = searchIndex.getItemStringStart(itemIndex); stringIndex < stringEnd; stringIndex++){
+            double rating = fuzzySearch.getSearchRating(getCommonLength(stringIndex), appliedQuery.length(), searchIndex.isTag(stringIndex));
+            bestRating    = Math.max(bestRating, rating);
+        }
+        return bestRating;
+    }
+
+    /**
+     * Gets the ranked results of a step, ranking them the first time.
+     * @param step the step.
+     * @return An array list of item objects, best first.
+     */
+    private ArrayList<Item> getResults(Step step){
+        if (step.results == null){
+            resultHeap.reset(limit, step.matchedCount);
+            for (int i = 0; i < step.matchedCount; i++){
+                resultHeap.offer(step.matchedRatings[i], step.matchedItems[i]);
+            }
+            if (resultItems.length < resultHeap.size()){
+                resultItems = new int[resultHeap.size()];
+            }
+            int resultCount = resultHeap.drainInOrder(resultItems);
+            step.results = new ArrayList<>(resultCount);
+            for (int i = 0; i < resultCount; i++){
+                step.results.add(searchIndex.getItem(resultItems[i]));
+            }
+        }
+        return new ArrayList<>(step.results); // Hand out a copy so the cached results stay as they are.
+    }
+
+    /**
+     * Constructor for the search session.
+     * @param fuzzySearch the fuzzy search object to search through.
+     * @param limit the maximum amount of results per query.
+     */
+    public SearchSession(FuzzySearch fuzzySearch, int limit){
+        this.fuzzySearch = fuzzySearch;
+        this.searchIndex = fuzzySearch.getSearchIndex();
+        this.limit       = limit;
+        this.resultHeap  = new SearchResultHeap(limit);
+        rebuild();
+    }
+}
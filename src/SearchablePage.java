@@ -4,9 +4,17 @@ import javax.swing.event.DocumentListener;
 import javax.swing.plaf.basic.BasicScrollBarUI;
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 /**
  * A page for searching objects.
+ * Searching runs on a worker thread so typing never waits on it. A newer keystroke cancels the search in flight,
+ * only the latest text is searched once the worker is free, and only the widget swap goes back to the event dispatch thread.
  */
 public class SearchablePage extends Page {
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
@@ -23,6 +31,11 @@ public class SearchablePage extends Page {
     //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     private ArrayList<Item> displayItemList;
     private FuzzySearch     fuzzySearch;
+    private SearchSession   searchSession;   // Only used on the search thread.
+    private ExecutorService searchExecutor;  // A single thread so the session is never used concurrently.
+    private FutureTask<ArrayList<Item>> searchTask; // The search in flight, null if there is none.
+    private String          pendingQuery;    // The newest text that still has to be searched.
+    private String          searchedText = ""; // The text of the search bar the shown items belong to.
     private ItemsLayout     itemsLayout;
 
     /**
@@ -38,7 +51,13 @@ public class SearchablePage extends Page {
         final Color LAYOUT_BACKGROUND_COLOR    = new Color(79, 91, 112);
         final Color LAYOUT_FOREGROUND_COLOR    = new Color(192, 197, 206);
 
-        fuzzySearch = new FuzzySearch(false, SEARCH_ACCURACY, itemList); // Create a new fuzzy search object.
+        fuzzySearch   = new FuzzySearch(false, SEARCH_ACCURACY, itemList); // Create a new fuzzy search object.
+        searchSession = fuzzySearch.createSearchSession(Integer.MAX_VALUE); // Reuses the previous keystroke's work while typing.
+        searchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread searchThread = new Thread(runnable, pageName + " search");
+            searchThread.setDaemon(true); // Do not keep the application alive.
+            return searchThread;
+        });
 
 
         // Create the search bar panel.
@@ -119,15 +138,96 @@ public class SearchablePage extends Page {
             }
 
             public void changedEvent(){ // Detected change.
-                String newText = searchBar.getText(); // Get the text.
-                if(newText.equals("")){ //If it is empty the user wants to see all the items.
-                    itemsLayout.drawAllItems(); // Draw all the items.
-                }else{
-                    displayItemList = fuzzySearch.getSearchResults(newText); // Fuzzy search.
-                    itemsLayout.setItems(displayItemList); // Set out new items.
+                requestSearch(searchBar.getText()); // Search the new text in the background.
+            }
+        });
+
+    }
+
+    /**
+     * Adds new items to the page. Can be called from any thread.
+     * The search index is updated on the search thread, between searches, and the layout on the event dispatch thread.
+     * While a search is shown it runs again, so only the new items that match are added to the results.
+     * @param newItems the new items, which must not be changed afterwards.
+     * @return completes once the items are searchable and shown.
+     */
+    public CompletableFuture<Void> addItems(List<Item> newItems){
+        CompletableFuture<Void> addedItems = new CompletableFuture<>();
+        searchExecutor.execute(() -> {
+            try {
+                for (Item newItem : newItems){
+                    fuzzySearch.addItem(newItem);
                 }
+            } catch (RuntimeException e) {
+                addedItems.completeExceptionally(e);
+                return;
             }
+            SwingUtilities.invokeLater(() -> {
+                itemsLayout.addItems(newItems);
+                if (!searchedText.equals("")){ // The results have to be searched again with the new items indexed.
+                    requestSearch(searchedText);
+                }
+                addedItems.complete(null);
+            });
         });
+        return addedItems;
+    }
 
+    /**
+     * Requests a search for new text. Called on the event dispatch thread.
+     * @param newText the text of the search bar.
+     */
+    private void requestSearch(String newText){
+        searchedText = newText;
+        pendingQuery = newText; // Only the newest text matters, older pending text is dropped.
+        if(searchTask == null){
+            startSearch();
+        }else{
+            searchTask.cancel(true); // Stop the search in flight, the pending text starts once it is done.
+        }
+    }
+
+    /**
+     * Starts searching the pending text on the search thread. Called on the event dispatch thread.
+     */
+    private void startSearch(){
+        String query = pendingQuery;
+        pendingQuery = null;
+        searchTask   = new FutureTask<ArrayList<Item>>(() -> query.equals("") ? null : searchSession.search(query)) { // Fuzzy search.
+            @Override
+            protected void done(){ // Runs once the search finished or was cancelled.
+                SwingUtilities.invokeLater(() -> finishSearch(this, query));
+            }
+        };
+        searchExecutor.execute(searchTask);
+    }
+
+    /**
+     * Shows the results of a search, or starts the next one if the text changed. Called on the event dispatch thread.
+     * @param finishedTask the search that finished.
+     * @param query the text that was searched.
+     */
+    private void finishSearch(FutureTask<ArrayList<Item>> finishedTask, String query){
+        if(finishedTask != searchTask){ // Already replaced.
+            return;
+        }
+        searchTask = null;
+        if(pendingQuery != null){ // The user kept typing, these results are already stale.
+            startSearch();
+            return;
+        }
+        if(finishedTask.isCancelled()){
+            return;
+        }
+        try {
+            if(query.equals("")){ //If it is empty the user wants to see all the items.
+                itemsLayout.drawAllItems(); // Draw all the items.
+            }else{
+                displayItemList = finishedTask.get();
+                itemsLayout.setItems(displayItemList); // Set out new items.
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Search failed for " + query, e);
+        }
     }
 }
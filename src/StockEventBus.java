@@ -0,0 +1,171 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands the stock events of items to the listeners that subscribed to them.
+ * Listeners are kept in copy on write arrays, so publishing is a map lookup and a loop without any lock. Subscribing copies the array, which is rare next to publishing.
+ * Listeners are called on the thread that changed the stock, so Swing listeners have to move their work onto the Event Dispatch Thread.
+ * Can be used from any thread.
+ */
+public class StockEventBus {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final StockListener[] NO_LISTENERS = {};
+    private static final StockEventBus   SHARED_BUS   = new StockEventBus();
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private ConcurrentHashMap<Item, StockListener[]> itemListeners = new ConcurrentHashMap<>(); // Items are compared by identity.
+    private volatile StockListener[] allItemListeners = NO_LISTENERS;
+    private LongAdder publishedCount = new LongAdder();
+
+    /**
+     * Gets told when the stock of an item crosses into another level, or its price changes.
+     */
+    public interface StockListener {
+        /**
+         * Called once for every transition or price change, the item holds the stock and price after it.
+         * Events of one item published from different threads can arrive in any order, so read the item for the current state.
+         * @param item the item.
+         * @param event what happened.
+         */
+        void stockChanged(Item item, Item.StockEvent event);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Gets the bus every item publishes to.
+     * @return the shared bus.
+     */
+    public static StockEventBus getShared(){
+        return SHARED_BUS;
+    }
+
+    /**
+     * Subscribes to the events of one item, does nothing if the listener already is.
+     * @param item the item.
+     * @param listener the listener.
+     */
+    public void subscribe(Item item, StockListener listener){
+        itemListeners.compute(item, (subscribedItem, listeners) -> addListener(listeners == null ? NO_LISTENERS : listeners, listener));
+    }
+
+    /**
+     * Stops a listener from getting the events of one item.
+     * @param item the item.
+     * @param listener the listener.
+     */
+    public void unsubscribe(Item item, StockListener listener){
+        itemListeners.computeIfPresent(item, (subscribedItem, listeners) -> {
+            StockListener[] remainingListeners = removeListener(listeners, listener);
+            return remainingListeners.length == 0 ? null : remainingListeners; // Forget the item once nobody listens.
+        });
+    }
+
+    /**
+     * Subscribes to the events of every item, does nothing if the listener already is.
+     * @param listener the listener.
+     */
+    public synchronized void subscribe(StockListener listener){
+        allItemListeners = addListener(allItemListeners, listener);
+    }
+
+    /**
+     * Stops a listener from getting the events of every item.
+     * @param listener the listener.
+     */
+    public synchronized void unsubscribe(StockListener listener){
+        allItemListeners = removeListener(allItemListeners, listener);
+    }
+
+    /**
+     * Tells the listeners of an item, and the ones of every item, about an event.
+     * A failing listener is reported and skipped, it never fails the stock change that published the event.
+     * @param item the item.
+     * @param event what happened.
+     */
+    public void publish(Item item, Item.StockEvent event){
+        publishedCount.increment();
+        for (StockListener listener : allItemListeners){
+            notifyListener(listener, item, event);
+        }
+        StockListener[] listeners = itemListeners.get(item);
+        if (listeners != null){
+            for (StockListener listener : listeners){
+                notifyListener(listener, item, event);
+            }
+        }
+    }
+
+    /**
+     * Gets the amount of items with a listener of their own.
+     * @return the subscribed item count.
+     */
+    public int getSubscribedItemCount(){
+        return itemListeners.size();
+    }
+
+    /**
+     * Gets the amount of published events.
+     * @return the published count.
+     */
+    public long getPublishedCount(){
+        return publishedCount.sum();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Calls a listener, reporting it if it fails.
+     * @param listener the listener.
+     * @param item the item.
+     * @param event what happened.
+     */
+    private static void notifyListener(StockListener listener, Item item, Item.StockEvent event){
+        try {
+            listener.stockChanged(item, event);
+        } catch (RuntimeException e) {
+            System.err.printf("STOCK EVENT ERROR: %s OF %s NOT HANDLED BY %s (%s)\n", event, item, listener, e);
+        }
+    }
+
+    /**
+     * Copies a listener array with one more listener.
+     * @param listeners the listeners.
+     * @param listener the listener to add.
+     * @return the new array, or the same one if the listener was in it.
+     */
+    private static StockListener[] addListener(StockListener[] listeners, StockListener listener){
+        for (StockListener subscribedListener : listeners){
+            if (subscribedListener == listener){
+                return listeners;
+            }
+        }
+        StockListener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+        newListeners[listeners.length] = listener;
+        return newListeners;
+    }
+
+    /**
+     * Copies a listener array without a listener.
+     * @param listeners the listeners.
+     * @param listener the listener to remove.
+     * @return the new array, or the same one if the listener was not in it.
+     */
+    private static StockListener[] removeListener(StockListener[] listeners, StockListener listener){
+        for (int i = 0; i < listeners.length; i++){
+            if (listeners[i] == listener){
+                StockListener[] newListeners = new StockListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, newListeners, 0, i);
+                System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+                return newListeners;
+            }
+        }
+        return listeners;
+    }
+}
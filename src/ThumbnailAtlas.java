@@ -0,0 +1,175 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Packs pictures of one fixed size into a few large shared sheets.
+ * Every picture takes one cell of a sheet and is painted as a sub rectangle of it, so thousands of item pictures are a handful of images instead of thousands.
+ * Cells are never freed, once every sheet is full the pictures have to be kept somewhere else.
+ * Can be used from any thread.
+ */
+public class ThumbnailAtlas {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final int  SHEET_LENGTH    = 2048; // Width and height of a sheet, small enough to be a single texture everywhere.
+    private static final long BYTES_PER_PIXEL = 4;
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private int cellWidth, cellHeight;
+    private int sheetColumns, cellsPerSheet, maxSheets;
+    private ArrayList<BufferedImage> sheets = new ArrayList<>();
+    private HashMap<String, AtlasIcon> icons = new HashMap<>(); // The packed picture of every resource path.
+
+    /**
+     * A picture painted from a cell of a sheet.
+     */
+    private static class AtlasIcon implements Icon {
+        private BufferedImage sheet;
+        private int sourceX, sourceY, width, height;
+
+        @Override
+        public void paintIcon(Component c, Graphics g, int x, int y){
+            g.drawImage(sheet, x, y, x + width, y + height, sourceX, sourceY, sourceX + width, sourceY + height, null);
+        }
+
+        @Override
+        public int getIconWidth(){
+            return width;
+        }
+
+        @Override
+        public int getIconHeight(){
+            return height;
+        }
+
+        /**
+         * Constructor for the atlas icon.
+         * @param sheet the sheet holding the picture.
+         * @param sourceX the left of the cell.
+         * @param sourceY the top of the cell.
+         * @param width the picture width.
+         * @param height the picture height.
+         */
+        private AtlasIcon(BufferedImage sheet, int sourceX, int sourceY, int width, int height){
+            this.sheet   = sheet;
+            this.sourceX = sourceX;
+            this.sourceY = sourceY;
+            this.width   = width;
+            this.height  = height;
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Checks if pictures of a size are packed in this atlas.
+     * @param width the picture width.
+     * @param height the picture height.
+     * @return true if it is the cell size.
+     */
+    public boolean isCellSize(int width, int height){
+        return width == cellWidth && height == cellHeight;
+    }
+
+    /**
+     * Gets the packed picture of a resource.
+     * @param resourcePath the path of the resource.
+     * @return the picture, or null if it is not packed.
+     */
+    public synchronized Icon getIcon(String resourcePath){
+        return icons.get(resourcePath);
+    }
+
+    /**
+     * Packs a picture into the next free cell, adding a sheet if the last one is full.
+     * @param resourcePath the path of the resource.
+     * @param image the picture, of the cell size.
+     * @return the packed picture, or null if every sheet is full.
+     */
+    public synchronized Icon addIcon(String resourcePath, BufferedImage image){
+        AtlasIcon icon = icons.get(resourcePath);
+        if (icon != null){ // Another thread packed it first.
+            return icon;
+        }
+        if (image.getWidth() != cellWidth || image.getHeight() != cellHeight){
+            throw new IllegalArgumentException("Picture " + resourcePath + " is not " + cellWidth + "x" + cellHeight);
+        }
+        int cell        = icons.size();
+        int sheetIndex  = cell / cellsPerSheet;
+        int cellInSheet = cell % cellsPerSheet;
+        if (sheetIndex >= maxSheets){
+            return null;
+        }
+        if (sheetIndex == sheets.size()){
+            sheets.add(new BufferedImage(sheetColumns * cellWidth, SHEET_LENGTH / cellHeight * cellHeight, BufferedImage.TYPE_INT_ARGB));
+        }
+        BufferedImage sheet = sheets.get(sheetIndex);
+        int x = (cellInSheet % sheetColumns) * cellWidth;
+        int y = (cellInSheet / sheetColumns) * cellHeight;
+        Graphics2D graphics = sheet.createGraphics();
+        graphics.setComposite(AlphaComposite.Src); // Copy the pixels as they are, alpha included.
+        graphics.drawImage(image, x, y, null);
+        graphics.dispose();
+        icon = new AtlasIcon(sheet, x, y, cellWidth, cellHeight);
+        icons.put(resourcePath, icon);
+        return icon;
+    }
+
+    /**
+     * Gets the amount of packed pictures.
+     * @return the picture count.
+     */
+    public synchronized int size(){
+        return icons.size();
+    }
+
+    /**
+     * Gets the amount of pictures that fit in every sheet together.
+     * @return the capacity.
+     */
+    public int getCapacity(){
+        return cellsPerSheet * maxSheets;
+    }
+
+    /**
+     * Gets the amount of sheets made so far.
+     * @return the sheet count.
+     */
+    public synchronized int getSheetCount(){
+        return sheets.size();
+    }
+
+    /**
+     * Gets the memory used by the sheets made so far.
+     * @return the used bytes.
+     */
+    public synchronized long getUsedBytes(){
+        long usedBytes = 0;
+        for (BufferedImage sheet : sheets){
+            usedBytes += BYTES_PER_PIXEL * sheet.getWidth() * sheet.getHeight();
+        }
+        return usedBytes;
+    }
+
+    /**
+     * Constructor for the thumbnail atlas.
+     * @param cellWidth the width of every picture, at most 2048.
+     * @param cellHeight the height of every picture, at most 2048.
+     * @param maxSheets the most sheets to make, each a 2048 by 2048 picture.
+     */
+    public ThumbnailAtlas(int cellWidth, int cellHeight, int maxSheets){
+        if (cellWidth < 1 || cellHeight < 1 || cellWidth > SHEET_LENGTH || cellHeight > SHEET_LENGTH){
+            throw new IllegalArgumentException("Cells must be between 1x1 and " + SHEET_LENGTH + "x" + SHEET_LENGTH);
+        }
+        this.cellWidth     = cellWidth;
+        this.cellHeight    = cellHeight;
+        this.maxSheets     = Math.max(0, maxSheets);
+        this.sheetColumns  = SHEET_LENGTH / cellWidth;
+        this.cellsPerSheet = sheetColumns * (SHEET_LENGTH / cellHeight);
+    }
+}
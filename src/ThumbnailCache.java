@@ -0,0 +1,404 @@
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Keeps scaled pictures on disk so they survive restarts.
+ * Every thumbnail is keyed by a hash of the source picture's content and its size, so a changed picture gets a new thumbnail and an unchanged one is never scaled again.
+ * A thumbnail file holds a small header and the deflated ARGB pixels, which loads without decoding or scaling the source.
+ * Can be used from any thread.
+ */
+public class ThumbnailCache {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final int    FILE_MAGIC         = 0x52435448; // "RCTH"
+    private static final int    FILE_VERSION       = 1;
+    private static final String FILE_EXTENSION     = ".thumb";
+    private static final String DIRECTORY_PROPERTY = "catalog.thumbnails"; // Overrides the default directory.
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private Path directory;
+    private ConcurrentHashMap<String, String> sourceHashes = new ConcurrentHashMap<>(); // The content hash of every source read so far, the resources do not change while running.
+    private volatile boolean isWritable = true; // Cleared after the first failed write so a read only disk is reported once.
+    private long hitCount, missCount;
+    private Thread rebuildThread;
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Gets the directory thumbnails are kept in unless another one is given.
+     * @return the catalog.thumbnails system property, or .robloxcatalog/thumbnails in the home directory.
+     */
+    public static Path getDefaultDirectory(){
+        String overriddenDirectory = System.getProperty(DIRECTORY_PROPERTY);
+        if (overriddenDirectory != null){
+            return Paths.get(overriddenDirectory);
+        }
+        return Paths.get(System.getProperty("user.home"), ".robloxcatalog", "thumbnails");
+    }
+
+    /**
+     * Gets a resource picture scaled to a size, reading the stored thumbnail if there is one.
+     * Otherwise the source is decoded and scaled, and the result stored for the next time.
+     * @param resourcePath the path of the resource, for example /resources/itempictures/Gravity Coil.png.
+     * @param width the width to scale to.
+     * @param height the height to scale to.
+     * @return the scaled picture.
+     */
+    public BufferedImage getThumbnail(String resourcePath, int width, int height){
+        String sourceHash = sourceHashes.get(resourcePath);
+        byte[] source     = null;
+        if (sourceHash == null){
+            source     = readSource(resourcePath);
+            sourceHash = hash(source);
+            sourceHashes.put(resourcePath, sourceHash);
+        }
+        Path thumbnailFile = getThumbnailFile(sourceHash, width, height);
+        BufferedImage thumbnail = readThumbnail(thumbnailFile, width, height);
+        if (thumbnail != null){
+            synchronized (this){
+                hitCount++;
+            }
+            return thumbnail;
+        }
+        synchronized (this){
+            missCount++;
+        }
+        if (source == null){ // Hashed earlier, the bytes are needed again now.
+            source = readSource(resourcePath);
+        }
+        thumbnail = ImageCache.scaleImage(decode(resourcePath, source), width, height);
+        writeThumbnail(thumbnailFile, resourcePath, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Builds the missing thumbnails of some pictures on a background thread, and deletes the ones whose source has changed since.
+     * Thumbnails that are still up to date are left alone, so a warm cache only costs hashing the sources.
+     * @param resourcePaths the paths of the source pictures.
+     * @param sizes the sizes the pictures are shown at.
+     */
+    public void rebuildLater(Collection<String> resourcePaths, Dimension... sizes){
+        String[] paths = resourcePaths.toArray(new String[0]);
+        Dimension[] thumbnailSizes = sizes.clone();
+        Thread thread = new Thread(() -> rebuild(paths, thumbnailSizes), "thumbnail rebuild");
+        thread.setDaemon(true); // Do not keep the application alive.
+        thread.setPriority(Thread.MIN_PRIORITY); // The pictures on screen load first.
+        synchronized (this){
+            rebuildThread = thread;
+        }
+        thread.start();
+    }
+
+    /**
+     * Waits for the last background rebuild to finish.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void awaitRebuild() throws InterruptedException {
+        Thread thread;
+        synchronized (this){
+            thread = rebuildThread;
+        }
+        if (thread != null){
+            thread.join();
+        }
+    }
+
+    /**
+     * Gets the directory the thumbnails are kept in.
+     * @return the directory.
+     */
+    public Path getDirectory(){
+        return directory;
+    }
+
+    /**
+     * Gets how many thumbnails were read from disk.
+     * @return the hit count.
+     */
+    public synchronized long getHitCount(){
+        return hitCount;
+    }
+
+    /**
+     * Gets how many thumbnails had to be scaled from the source.
+     * @return the miss count.
+     */
+    public synchronized long getMissCount(){
+        return missCount;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Builds the missing thumbnails and deletes the stale ones.
+     * @param resourcePaths the paths of the source pictures.
+     * @param sizes the sizes the pictures are shown at.
+     */
+    private void rebuild(String[] resourcePaths, Dimension[] sizes){
+        HashSet<String> rebuiltPaths = new HashSet<>();
+        HashSet<Path>   liveFiles    = new HashSet<>();
+        for (String resourcePath : resourcePaths){
+            try {
+                byte[] source     = readSource(resourcePath);
+                String sourceHash = hash(source);
+                sourceHashes.put(resourcePath, sourceHash);
+                BufferedImage decoded = null;
+                for (Dimension size : sizes){
+                    Path thumbnailFile = getThumbnailFile(sourceHash, size.width, size.height);
+                    liveFiles.add(thumbnailFile);
+                    if (hasThumbnail(thumbnailFile, size.width, size.height)){ // Up to date.
+                        continue;
+                    }
+                    if (decoded == null){ // Decode once for every size.
+                        decoded = decode(resourcePath, source);
+                    }
+                    writeThumbnail(thumbnailFile, resourcePath, ImageCache.scaleImage(decoded, size.width, size.height));
+                }
+                rebuiltPaths.add(resourcePath);
+            } catch (RuntimeException e) {
+                System.err.printf("THUMBNAIL ERROR: %s COULD NOT BE BUILT (%s)\n", resourcePath, e);
+            }
+        }
+        deleteStaleThumbnails(rebuiltPaths, liveFiles);
+    }
+
+    /**
+     * Deletes the thumbnails of the given sources which are not up to date any more.
+     * Thumbnails of other sources are kept, they may belong to another catalog.
+     * @param resourcePaths the sources that were just rebuilt.
+     * @param liveFiles the up to date thumbnails of those sources.
+     */
+    private void deleteStaleThumbnails(HashSet<String> resourcePaths, HashSet<Path> liveFiles){
+        if (!Files.isDirectory(directory)){
+            return;
+        }
+        try (DirectoryStream<Path> thumbnailFiles = Files.newDirectoryStream(directory, "*" + FILE_EXTENSION)){
+            for (Path thumbnailFile : thumbnailFiles){
+                if (liveFiles.contains(thumbnailFile)){
+                    continue;
+                }
+                String resourcePath = readSourcePath(thumbnailFile);
+                if (resourcePath == null || resourcePaths.contains(resourcePath)){ // Unreadable, or built from an older version of the source.
+                    Files.deleteIfExists(thumbnailFile);
+                }
+            }
+        } catch (IOException e) {
+            System.err.printf("THUMBNAIL ERROR: %s COULD NOT BE CLEANED (%s)\n", directory, e);
+        }
+    }
+
+    /**
+     * Gets the file of a thumbnail.
+     * @param sourceHash the content hash of the source.
+     * @param width the thumbnail width.
+     * @param height the thumbnail height.
+     * @return the path of the file.
+     */
+    private Path getThumbnailFile(String sourceHash, int width, int height){
+        return directory.resolve(sourceHash + '_' + width + 'x' + height + FILE_EXTENSION);
+    }
+
+    /**
+     * Reads a thumbnail file.
+     * @param thumbnailFile the file.
+     * @param width the expected width.
+     * @param height the expected height.
+     * @return the thumbnail, or null if it is missing or unreadable.
+     */
+    private static BufferedImage readThumbnail(Path thumbnailFile, int width, int height){
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(thumbnailFile)))){
+            if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION){
+                return null;
+            }
+            input.readUTF(); // The source path, only needed for cleaning up.
+            if (input.readInt() != width || input.readInt() != height){
+                return null;
+            }
+            byte[] pixelBytes = new byte[width * height * 4];
+            try (DataInputStream pixelInput = new DataInputStream(new InflaterInputStream(input))){ // Closing it ends its inflater, which holds native memory.
+                pixelInput.readFully(pixelBytes);
+            }
+            int[] pixels = new int[width * height];
+            ByteBuffer.wrap(pixelBytes).asIntBuffer().get(pixels);
+            BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            thumbnail.getRaster().setDataElements(0, 0, width, height, pixels); // Copies straight into the raster, and keeps the image managed unlike taking its data buffer.
+            return thumbnail;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) { // Truncated or corrupted, it is built again.
+            return null;
+        }
+    }
+
+    /**
+     * Checks the header of a thumbnail file without reading its pixels.
+     * @param thumbnailFile the file.
+     * @param width the expected width.
+     * @param height the expected height.
+     * @return true if the file is a thumbnail of that size.
+     */
+    private static boolean hasThumbnail(Path thumbnailFile, int width, int height){
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(thumbnailFile)))){
+            if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION){
+                return false;
+            }
+            input.readUTF();
+            return input.readInt() == width && input.readInt() == height && input.read() != -1;
+        } catch (IOException e) { // Missing or truncated.
+            return false;
+        }
+    }
+
+    /**
+     * Reads the source path from the header of a thumbnail file.
+     * @param thumbnailFile the file.
+     * @return the source path, or null if the file is unreadable.
+     */
+    private static String readSourcePath(Path thumbnailFile){
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(thumbnailFile)))){
+            if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION){
+                return null;
+            }
+            return input.readUTF();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a thumbnail file.
+     * The file is written next to its final name and then moved over it, so readers never see half a thumbnail.
+     * @param thumbnailFile the file.
+     * @param resourcePath the path of the source.
+     * @param thumbnail the scaled picture.
+     */
+    private void writeThumbnail(Path thumbnailFile, String resourcePath, BufferedImage thumbnail){
+        if (!isWritable){
+            return;
+        }
+        int width  = thumbnail.getWidth();
+        int height = thumbnail.getHeight();
+        int[] pixels = (int[])thumbnail.getRaster().getDataElements(0, 0, width, height, null); // The scaled pictures are always ARGB ints.
+        ByteBuffer pixelBytes = ByteBuffer.allocate(pixels.length * 4);
+        pixelBytes.asIntBuffer().put(pixels);
+        Path temporaryFile = null;
+        try {
+            Files.createDirectories(directory);
+            temporaryFile = Files.createTempFile(directory, "thumbnail", ".tmp");
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))){
+                output.writeInt(FILE_MAGIC);
+                output.writeInt(FILE_VERSION);
+                output.writeUTF(resourcePath);
+                output.writeInt(width);
+                output.writeInt(height);
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED); // Inflating is what matters, and it is about as fast at every level.
+                try {
+                    DeflaterOutputStream pixelOutput = new DeflaterOutputStream(output, deflater);
+                    pixelOutput.write(pixelBytes.array());
+                    pixelOutput.finish();
+                } finally {
+                    deflater.end(); // Also when writing failed, it holds native memory.
+                }
+            }
+            try {
+                Files.move(temporaryFile, thumbnailFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, thumbnailFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            isWritable = false;
+            System.err.printf("THUMBNAIL ERROR: %s COULD NOT BE WRITTEN, THUMBNAILS ARE NOT KEPT (%s)\n", thumbnailFile, e);
+            try {
+                if (temporaryFile != null){
+                    Files.deleteIfExists(temporaryFile);
+                }
+            } catch (IOException ignored) {
+                // Nothing more to do.
+            }
+        }
+    }
+
+    /**
+     * Reads the bytes of a source picture.
+     * @param resourcePath the path of the resource.
+     * @return the encoded picture.
+     */
+    private static byte[] readSource(String resourcePath){
+        URL resource = ThumbnailCache.class.getResource(resourcePath);
+        if (resource == null){
+            throw new IllegalArgumentException("Missing picture " + resourcePath);
+        }
+        try (InputStream input = resource.openStream()){
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1){
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decodes a source picture.
+     * @param resourcePath the path of the resource, for the error.
+     * @param source the encoded picture.
+     * @return the decoded picture.
+     */
+    private static BufferedImage decode(String resourcePath, byte[] source){
+        try {
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(source));
+            if (decoded == null){ // No reader for the format.
+                throw new IllegalArgumentException("Unreadable picture " + resourcePath);
+            }
+            return decoded;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Hashes the content of a source picture.
+     * @param source the encoded picture.
+     * @return the first 128 bits of its SHA-256 as hex.
+     */
+    private static String hash(byte[] source){
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source);
+            StringBuilder hex = new StringBuilder(32);
+            for (int i = 0; i < 16; i++){
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every Java platform has SHA-256.
+        }
+    }
+
+    /**
+     * Constructor for the thumbnail cache.
+     * @param directory the directory to keep the thumbnails in, created on the first write.
+     */
+    public ThumbnailCache(Path directory){
+        this.directory = directory;
+    }
+}
@@ -0,0 +1,130 @@
+import javax.swing.*;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the views whose item changed and refreshes them together, at most once per frame.
+ * Marking a view dirty from any thread only adds it to a set. The first mark after a flush schedules the next one for the start of the next frame,
+ * and that one task on the Event Dispatch Thread refreshes every dirty view once with the state the item has by then.
+ * However often the stock or price changes, Swing gets at most one task per frame and every view is refreshed at most once in it.
+ */
+public class UpdateCoalescer {
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- CONSTANTS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private static final long           DEFAULT_FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+    private static final UpdateCoalescer SHARED_COALESCER   = new UpdateCoalescer(DEFAULT_FRAME_NANOS);
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- OBJECT VALUES
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    private long frameNanos;
+    private Set<Refreshable> dirtyViews  = ConcurrentHashMap.newKeySet(); // Views are compared by identity.
+    private AtomicBoolean    isScheduled = new AtomicBoolean();            // Set from the first mark until the flush starts.
+    private ScheduledExecutorService frameClock;
+    private volatile long lastFlushNanos;
+    private LongAdder markCount = new LongAdder();
+    private volatile long flushCount, refreshCount; // Only changed on the Event Dispatch Thread.
+
+    /**
+     * A view that shows the current state of an item.
+     */
+    public interface Refreshable {
+        /**
+         * Shows the current state of the item, called on the Event Dispatch Thread.
+         */
+        void refresh();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PUBLIC METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Gets the coalescer the item views use, flushing at 60 frames per second.
+     * @return the shared coalescer.
+     */
+    public static UpdateCoalescer getShared(){
+        return SHARED_COALESCER;
+    }
+
+    /**
+     * Marks a view as showing an out of date item, it is refreshed in the next frame.
+     * Marking it again before then does nothing more.
+     * @param view the view.
+     */
+    public void markDirty(Refreshable view){
+        markCount.increment();
+        dirtyViews.add(view);
+        if (isScheduled.compareAndSet(false, true)){ // The first mark since the last flush schedules the next one.
+            long delayNanos = Math.max(0, lastFlushNanos + frameNanos - System.nanoTime());
+            frameClock.schedule(() -> SwingUtilities.invokeLater(this::flush), delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Gets the amount of times a view was marked dirty.
+     * @return the mark count.
+     */
+    public long getMarkCount(){
+        return markCount.sum();
+    }
+
+    /**
+     * Gets the amount of flushes, every one was a single task on the Event Dispatch Thread.
+     * @return the flush count.
+     */
+    public long getFlushCount(){
+        return flushCount;
+    }
+
+    /**
+     * Gets the amount of view refreshes over every flush.
+     * @return the refresh count.
+     */
+    public long getRefreshCount(){
+        return refreshCount;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    //-- PRIVATE METHODS
+    //------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
+    /**
+     * Refreshes every dirty view once. Runs on the Event Dispatch Thread.
+     */
+    private void flush(){
+        lastFlushNanos = System.nanoTime();
+        isScheduled.set(false); // Marks from here on schedule the next frame, so none are missed.
+        long refreshedCount = 0;
+        Iterator<Refreshable> iterator = dirtyViews.iterator();
+        while (iterator.hasNext()){
+            Refreshable view = iterator.next();
+            iterator.remove();
+            try {
+                view.refresh();
+            } catch (RuntimeException e) {
+                System.err.printf("UPDATE ERROR: %s COULD NOT BE REFRESHED (%s)\n", view, e);
+            }
+            refreshedCount++;
+        }
+        refreshCount += refreshedCount;
+        flushCount++;
+    }
+
+    /**
+     * Constructor for the update coalescer.
+     * @param frameNanos the shortest time between two flushes.
+     */
+    public UpdateCoalescer(long frameNanos){
+        this.frameNanos = frameNanos;
+        frameClock = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "update coalescer");
+            thread.setDaemon(true); // Do not keep the application alive.
+            return thread;
+        });
+    }
+}